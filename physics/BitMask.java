@@ -0,0 +1,185 @@
+package physics;
+
+import java.util.Arrays;
+
+/**
+ * En mask med en bit per pixel, true för fyllda pixlar.
+ * Bitarna lagras rad för rad i en long[], 64 pixlar per ord. Varje rad börjar på ett
+ * nytt ord, och bitarna efter radens slut är alltid noll. Pixel x på raden ligger i
+ * bit x % 64 av ord x / 64.
+ * <br/><br/>
+ * Jämfört med en boolean[][] tar masken en åttondel av minnet, och ytan,
+ * sökningen efter fyllda pixlar och överlapp mellan två masker räknas 64 pixlar åt gången.
+ *
+ * @author Robin Lindh Nilsson
+ */
+public class BitMask {
+
+	private final int width, height;
+	private final int wordsPerRow;
+	private final long[] words;
+
+	/**
+	 * Skapar en tom mask.
+	 */
+	public BitMask(int width, int height) {
+		this.width = width;
+		this.height = height;
+		wordsPerRow = (width + 63) >>> 6;
+		words = new long[wordsPerRow * height];
+	}
+
+	public BitMask(BitMask copy) {
+		width = copy.width;
+		height = copy.height;
+		wordsPerRow = copy.wordsPerRow;
+		words = copy.words.clone();
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return true om pixeln är fylld. Pixlar utanför masken räknas som tomma.
+	 */
+	public boolean get(int x, int y) {
+		if (x < 0 || y < 0 || x >= width || y >= height) {
+			return false;
+		}
+		return (words[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+	}
+
+	public void set(int x, int y) {
+		words[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+	}
+
+	public void clear(int x, int y) {
+		words[y * wordsPerRow + (x >>> 6)] &= ~(1L << x);
+	}
+
+	public void set(int x, int y, boolean filled) {
+		if (filled) {
+			set(x, y);
+		} else {
+			clear(x, y);
+		}
+	}
+
+	/**
+	 * @return antalet fyllda pixlar
+	 */
+	public int count() {
+		int n = 0;
+		for (long word : words) {
+			n += Long.bitCount(word);
+		}
+		return n;
+	}
+
+	public boolean isEmpty() {
+		for (long word : words) {
+			if (word != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Letar efter nästa fyllda pixel på en rad. Används för att gå igenom alla fyllda pixlar:
+	 * <pre>
+	 * for (int y = 0; y &lt; mask.getHeight(); y++)
+	 *     for (int x = mask.nextSetBit(0, y); x != -1; x = mask.nextSetBit(x + 1, y))
+	 * </pre>
+	 * @param fromX första x-koordinaten att titta på
+	 * @param y raden
+	 * @return x-koordinaten för den första fyllda pixeln från och med fromX, eller -1
+	 */
+	public int nextSetBit(int fromX, int y) {
+		if (fromX >= width) {
+			return -1;
+		}
+		int rowStart = y * wordsPerRow;
+		int i = fromX >>> 6;
+		long word = words[rowStart + i] & (-1L << fromX);
+		while (true) {
+			if (word != 0) {
+				return (i << 6) + Long.numberOfTrailingZeros(word);
+			}
+			if (++i == wordsPerRow) {
+				return -1;
+			}
+			word = words[rowStart + i];
+		}
+	}
+
+	/**
+	 * @return de 64 pixlarna från och med x på raden y, som bitar. Pixlar utanför masken är noll.
+	 */
+	private long wordAt(int x, int y) {
+		if (y < 0 || y >= height || x >= width || x <= -64) {
+			return 0;
+		}
+		int rowStart = y * wordsPerRow;
+		if (x < 0) {
+			return words[rowStart] << -x;
+		}
+		int i = x >>> 6;
+		int shift = x & 63;
+		long word = words[rowStart + i] >>> shift;
+		if (shift != 0 && i + 1 < wordsPerRow) {
+			word |= words[rowStart + i + 1] << (64 - shift);
+		}
+		return word;
+	}
+
+	/**
+	 * Kontrollerar om två masker har någon fylld pixel gemensamt, 64 pixlar åt gången.
+	 * @param other den andra masken
+	 * @param dx den andra maskens position i denna masks koordinatsystem
+	 * @param dy den andra maskens position i denna masks koordinatsystem
+	 * @return true om minst en pixel är fylld i båda maskerna
+	 */
+	public boolean intersects(BitMask other, int dx, int dy) {
+		int startY = Math.max(0, dy);
+		int endY = Math.min(height, dy + other.height);
+		int startX = Math.max(0, dx);
+		int endX = Math.min(width, dx + other.width);
+		for (int y = startY; y < endY; y++) {
+			for (int x = startX; x < endX; x += 64) {
+				if ((wordAt(x, y) & other.wordAt(x - dx, y - dy)) != 0) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true om den andra masken har samma dimensioner och samma fyllda pixlar
+	 */
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (!(other instanceof BitMask)) {
+			return false;
+		}
+		BitMask mask = (BitMask) other;
+		return width == mask.width && height == mask.height && Arrays.equals(words, mask.words);
+	}
+
+	/**
+	 * Hashkod baserad på maskens innehåll, så att lika masker kan hittas i en HashMap.
+	 */
+	@Override
+	public int hashCode() {
+		return (width * 31 + height) * 31 + Arrays.hashCode(words);
+	}
+}
@@ -5,12 +5,7 @@
 package physics;
 
 import physics.entities.RigidBody;
-import java.awt.Color;
-import java.awt.Graphics2D;
-import java.awt.Point;
 import java.awt.Rectangle;
-import java.awt.image.BufferedImage;
-import java.util.ArrayList;
 
 /**
  *
@@ -24,120 +19,374 @@ public class Collision {
 
     /**Hittar om det finns något överlapp mellan den givna kroppen och rektangeln.
      * Först görs en enkel kontroll med hjälp av kroppens radie.<br/>
-     * Om denna cirkel inte överlappar returneras null. Om den överlappar görs en ytterligare
-     * kontroll inom en rektangel som omfattar det överlappande området. Överlapp innebär
-     * att kroppen har minst en icke-genomskinlig pixel inom rektangeln.
+     * Om denna cirkel inte överlappar returneras null. Om den överlappar används
+     * avståndsfält åt båda hållen: kroppens kantpunkter testas mot rektangelns
+     * avståndsfält, som räknas ut direkt, och rektangelns hörn testas mot kroppens
+     * förberäknade avståndsfält. Varje punkt kostar ett fast antal operationer.
+     * Överlappet är det största avståndet från en punkt till den andra ytans kant, och
+     * normalen är medelvärdet av gradienterna, viktat med hur djupt varje punkt ligger.
      *
      * @param body Kroppen
      * @param rect Den rektangulära kollisionsytan
      * @return - Om inget överlapp finns returneras null<br/>
-     *         - Om en eller flera pixlar överlappar returneras en Collision
+     *         - Om kroppen och rektangeln överlappar returneras en Collision
      *           med kollisionsdata
      */
     public static Collision checkCollision(RigidBody body, Rectangle rect) {
         if(body.isEmpty())
             return null;
-        
-        int radius = (int) body.collisionRadius + 5; // +5 gör att objekt hamnar bättre i vila, av någon anledning
-        int L = (int) body.pos.x - radius;
-        int U = (int) body.pos.y - radius;
-        int R = L + radius*2;
-        int D = U + radius*2;
+        if(body.getCollisionMesh() != null)
+            return checkMeshCollision(body, rect);
+
+        //kollisionsradien går till pixlarnas mittpunkter, kanten ligger upp till en pixel längre ut
+        double radius = body.collisionRadius + 1;
         //kontrollera kollisions-cirkeln mot rektangeln
-        if(D <= rect.y || U >= rect.y + rect.getHeight() ||
-                R <= rect.x || L >= rect.x + rect.getWidth()){
+        if(body.pos.y + radius <= rect.y || body.pos.y - radius >= rect.y + rect.getHeight() ||
+                body.pos.x + radius <= rect.x || body.pos.x - radius >= rect.x + rect.getWidth()){
             return null;
         }
 
-        //intervallet för pixel-kollision i globala koordinater
-        int limitL = Math.max(L, rect.x);
-        int limitR = Math.min(R, rect.x + (int)rect.getWidth());
-        int limitU = Math.max(U, rect.y);
-        int limitD = Math.min(D, rect.y + (int)rect.getHeight());
-
-        ArrayList<Vector> colPoints = new ArrayList<Vector>();
-
-		//räkna ut det exakta intervallet som ska kollisionskontrolleras per-pixel
-		int intersectionWidth = limitR-limitL+1;
-		int intersectionHeight = limitD-limitU+1;
-
-		BufferedImage intersection = new BufferedImage(intersectionWidth, intersectionHeight, BufferedImage.TYPE_INT_ARGB);
-		//translatera bildbuffertens grafik så att övre vänstra hörnet av
-		//kollisions-kontroll-intervallet (kollisionskontrollens lokala origo)
-		//hamnar i bildbuffertens origo. 
-		//Därefter omfattas området som ska testas per-pixel exakt av bilden.
-		Graphics2D g2d = intersection.createGraphics();
-		g2d.setColor(Color.white);
-		g2d.fillRect(0, 0, intersection.getWidth(), intersection.getHeight());
-		body.paintAtCoordinate(g2d, new Point((int)body.pos.x - limitL, (int)body.pos.y - limitU));
-
-		for(int i=0; i<intersection.getWidth(); i++){
-			for(int j=0; j<intersection.getHeight(); j++){
-				if(intersection.getRGB(i, j) != -1) {
-					//translatera tillbaka punkten till världskoordinater, och lägg till som kollision
-					colPoints.add(new Vector(i+limitL, j+limitU));
-				}
-			}
-		}
-		
-        if(colPoints.isEmpty())
-            return null;
-        
-        Collision col = new Collision();
-        col.point = avgPoint(colPoints);
-
-        //beräkna kollisionsnormalen
-        int w = (int)rect.getWidth();
-        int h = (int)rect.getHeight();
-        double dx = col.point.x - rect.x-w/2;
-        double dy = col.point.y - rect.y-h/2;
-
-        //jämför k-värde på:
-        //1. en vektor från rektangelcentrum till kollisionspunkten
-        //2. en vektor från ö.v. hörnet till n.h. hörnet (rektangelns proportioner)
-        if(Math.abs(dy/dx) < h/w){ //lägre lutning än proportionerna, dvs antingen från höger eller från vänster
-            if(dx > 0)
-                col.normal = new Vector(1, 0);
-            else
-                col.normal = new Vector(-1,0);
-        } else { //högre lutning än proportionerna, dvs antingen uppifrån eller nerifrån
-            if(dy > 0)
-                col.normal = new Vector(0,1);
-            else
-                col.normal = new Vector(0,-1);
+        ContactSampler sampler = new ContactSampler(body);
+
+        //kroppens kant mot rektangeln.
+        //kroppen ritas ut som pos + R(-rotation) * (lokal - tyngdpunkt),
+        //varje kantpunkt transformeras därför till världskoordinater på samma sätt
+        double[] contourX = body.getContourX();
+        double[] contourY = body.getContourY();
+        int contourLength = body.getContourLength();
+        for (int k = 0; k < contourLength; k++) {
+            double x = body.pos.x + sampler.cos * contourX[k] + sampler.sin * contourY[k];
+            double y = body.pos.y - sampler.sin * contourX[k] + sampler.cos * contourY[k];
+            sampler.sampleInRectangle(x, y, rect);
         }
+
+        //rektangelns hörn mot kroppen
+        sampler.sampleInBody(rect.x, rect.y);
+        sampler.sampleInBody(rect.x + rect.getWidth(), rect.y);
+        sampler.sampleInBody(rect.x, rect.y + rect.getHeight());
+        sampler.sampleInBody(rect.x + rect.getWidth(), rect.y + rect.getHeight());
+
+        Collision col = sampler.toCollision();
+        if (col == null)
+            return null;
+
 		//ingen kollision om objektet rör sig bort från rektangeln
 		if(Vector.dot(body.getPointVelocity(col.point), col.normal) >= 0)
 			return null;
 
-        //beräkna överlapp
-        double dotMax = 1 - Double.MAX_VALUE;
-        double dotMin = Double.MAX_VALUE;
-        double dot;
-        for(Vector v : colPoints) {
-            dot = Vector.dot(v, col.normal);
-            dotMax = Math.max(dot, dotMax);
-            dotMin = Math.min(dot, dotMin);
+        return col;
+    }
+
+    /**Samlar ihop punkter som ligger inuti den andra ytan till en kollision.
+     * Normalen ackumuleras i riktningen kroppen ska flyttas.
+     */
+    private static class ContactSampler {
+
+        private final RigidBody body;
+        private final DistanceField field;
+        final double cos, sin;
+        private int n = 0;
+        private double sumX = 0, sumY = 0; //de överlappande punkternas positioner
+        private double normalX = 0, normalY = 0; //viktad summa av normalerna
+        private double maxDepth = 0;
+
+        ContactSampler(RigidBody body) {
+            this.body = body;
+            field = body.getDistanceField();
+            cos = Math.cos(body.rotation);
+            sin = Math.sin(body.rotation);
         }
-        col.overlap = dotMax - dotMin;
 
-        return col;
+        /**Testar en punkt på kroppens kant mot rektangelns avståndsfält.
+         * Inuti rektangeln är avståndet det kortaste avståndet till en av sidorna,
+         * och normalen pekar ut genom den sidan.
+         */
+        void sampleInRectangle(double x, double y, Rectangle rect) {
+            double left = x - rect.x;
+            double right = rect.x + rect.getWidth() - x;
+            double top = y - rect.y;
+            double bottom = rect.y + rect.getHeight() - y;
+            double depth = Math.min(Math.min(left, right), Math.min(top, bottom));
+            if (depth <= 0)
+                return;
+
+            if (depth == top) {
+                add(x, y, depth, 0, -1);
+            } else if (depth == bottom) {
+                add(x, y, depth, 0, 1);
+            } else if (depth == left) {
+                add(x, y, depth, -1, 0);
+            } else {
+                add(x, y, depth, 1, 0);
+            }
+        }
+
+        /**Testar en punkt i världskoordinater mot kroppens avståndsfält.
+         * Punkten transformeras till pixeldatans koordinatsystem, och kroppen
+         * ska flyttas motsatt fältets gradient.
+         */
+        void sampleInBody(double x, double y) {
+            sampleIn(this, x, y, -1);
+        }
+
+        /**Testar en punkt på kroppens kant mot en annan kropps avståndsfält.
+         * Kroppen ska flyttas längs den andra kroppens gradient, ut ur den.
+         */
+        void sampleInOther(ContactSampler other, double x, double y) {
+            sampleIn(other, x, y, 1);
+        }
+
+        /**@param owner kroppen vars avståndsfält punkten testas mot
+         * @param sign 1 om kroppen ska flyttas längs gradienten, -1 om den ska flyttas motsatt
+         */
+        private void sampleIn(ContactSampler owner, double x, double y, double sign) {
+            double dx = x - owner.body.pos.x;
+            double dy = y - owner.body.pos.y;
+            Vector centerGravityLocal = owner.body.getCenterGravityLocal();
+            double localX = owner.cos * dx - owner.sin * dy + centerGravityLocal.x;
+            double localY = owner.sin * dx + owner.cos * dy + centerGravityLocal.y;
+            double depth = -owner.field.distance(localX, localY);
+            if (depth <= 0)
+                return;
+
+            //gradienten pekar ut ur kroppen, tillbaka till världskoordinater
+            Vector gradient = owner.field.gradient(localX, localY);
+            add(x, y, depth, sign * (owner.cos * gradient.x + owner.sin * gradient.y),
+                    sign * (-owner.sin * gradient.x + owner.cos * gradient.y));
+        }
+
+        /**Testar den här kroppens kantpunkter mot en annan kropps avståndsfält.
+         */
+        void sampleContourIn(ContactSampler other) {
+            double[][] contour = contourInWorld();
+            for (int k = 0; k < contour[0].length; k++) {
+                sampleInOther(other, contour[0][k], contour[1][k]);
+            }
+        }
+
+        /**Testar en annan kropps kantpunkter mot den här kroppens avståndsfält.
+         */
+        void sampleContourOf(ContactSampler other) {
+            double[][] contour = other.contourInWorld();
+            for (int k = 0; k < contour[0].length; k++) {
+                sampleInBody(contour[0][k], contour[1][k]);
+            }
+        }
+
+        /**@return kroppens kantpunkter i världskoordinater, som {x[], y[]}
+         */
+        private double[][] contourInWorld() {
+            double[] contourX = body.getContourX();
+            double[] contourY = body.getContourY();
+            int contourLength = body.getContourLength();
+            //kanten är relativ pixlarnas tyngdpunkt, som kan skilja sig från kroppens med CollisionMesh
+            Vector pixelCenter = body.getShape().getMassProperties().getCentroid();
+            Vector centerGravityLocal = body.getCenterGravityLocal();
+            double offsetX = pixelCenter.x - centerGravityLocal.x;
+            double offsetY = pixelCenter.y - centerGravityLocal.y;
+            double[][] contour = new double[2][contourLength];
+            for (int k = 0; k < contourLength; k++) {
+                double localX = contourX[k] + offsetX;
+                double localY = contourY[k] + offsetY;
+                contour[0][k] = body.pos.x + cos * localX + sin * localY;
+                contour[1][k] = body.pos.y - sin * localX + cos * localY;
+            }
+            return contour;
+        }
+
+        private void add(double x, double y, double depth, double nx, double ny) {
+            n++;
+            sumX += x;
+            sumY += y;
+            maxDepth = Math.max(maxDepth, depth);
+            normalX += depth * nx;
+            normalY += depth * ny;
+        }
+
+        /**@return kollisionen, eller null om ingen punkt låg inuti den andra ytan
+         */
+        Collision toCollision() {
+            double length = Math.sqrt(normalX*normalX + normalY*normalY);
+            if (n == 0 || length == 0)
+                return null;
+            Collision col = new Collision();
+            col.point = new Vector(sumX / n, sumY / n);
+            col.normal = new Vector(normalX / length, normalY / length);
+            col.overlap = maxDepth;
+            return col;
+        }
     }
 
-    /**
-     * Beräknar medelvärdet av ett antal vektorer i 2D
+    /**Som checkCollision, men för en kropp med CollisionMesh. Kroppens konvexa delar
+     * testas mot rektangeln med separating axis theorem, och den del som överlappar
+     * mest ger kollisionen.
+     */
+    private static Collision checkMeshCollision(RigidBody body, Rectangle rect) {
+        double radius = body.collisionRadius;
+        if(body.pos.y + radius <= rect.y || body.pos.y - radius >= rect.y + rect.getHeight() ||
+                body.pos.x + radius <= rect.x || body.pos.x - radius >= rect.x + rect.getWidth()){
+            return null;
+        }
+
+        ConvexPolygon rectPolygon = ConvexPolygon.rectangle(rect.x, rect.y, rect.getWidth(), rect.getHeight());
+        Collision deepest = null;
+        for (ConvexPolygon piece : body.getCollisionMesh().getPieces()) {
+            piece.transform(body.pos.x, body.pos.y, body.rotation);
+            Collision col = separate(piece, rectPolygon);
+            if (col != null && (deepest == null || col.overlap > deepest.overlap)) {
+                deepest = col;
+            }
+        }
+        if (deepest == null)
+            return null;
+
+        //ingen kollision om objektet rör sig bort från rektangeln
+        if(Vector.dot(body.getPointVelocity(deepest.point), deepest.normal) >= 0)
+            return null;
+        return deepest;
+    }
+
+    /**Hittar om två kroppar med CollisionMesh kolliderar, se findOverlap.
+     *
+     * @return - null om kropparna inte överlappar, eller om de rör sig ifrån varandra<br/>
+     *         - annars en Collision för det mest överlappande paret av delar,
+     *           med normalen riktad från b mot a
+     */
+    public static Collision checkCollision(RigidBody a, RigidBody b) {
+        Collision deepest = findOverlap(a, b);
+        if (deepest == null)
+            return null;
+
+        //ingen kollision om kropparna rör sig ifrån varandra i kollisionspunkten
+        Vector relativeVel = a.getPointVelocity(deepest.point).subtract(b.getPointVelocity(deepest.point));
+        if(Vector.dot(relativeVel, deepest.normal) >= 0)
+            return null;
+        return deepest;
+    }
+
+    /**Hittar om två kroppar med CollisionMesh överlappar, med separating axis theorem
+     * för varje par av konvexa delar. Till skillnad från checkCollision tas ingen
+     * hänsyn till hur kropparna rör sig. Saknar någon av kropparna CollisionMesh
+     * används avståndsfälten i stället, se findFieldOverlap.
+     *
+     * @return - null om kropparna inte överlappar<br/>
+     *         - annars en Collision för det mest överlappande paret av delar,
+     *           med normalen riktad från b mot a
+     */
+    public static Collision findOverlap(RigidBody a, RigidBody b) {
+        if(a.isEmpty() || b.isEmpty())
+            return null;
+        if(a.getCollisionMesh() == null || b.getCollisionMesh() == null)
+            return findFieldOverlap(a, b);
+        double dx = a.pos.x - b.pos.x;
+        double dy = a.pos.y - b.pos.y;
+        double radii = a.collisionRadius + b.collisionRadius;
+        if(dx*dx + dy*dy >= radii*radii)
+            return null;
+
+        for (ConvexPolygon piece : b.getCollisionMesh().getPieces()) {
+            piece.transform(b.pos.x, b.pos.y, b.rotation);
+        }
+        Collision deepest = null;
+        for (ConvexPolygon pieceA : a.getCollisionMesh().getPieces()) {
+            pieceA.transform(a.pos.x, a.pos.y, a.rotation);
+            for (ConvexPolygon pieceB : b.getCollisionMesh().getPieces()) {
+                Collision col = separate(pieceA, pieceB);
+                if (col != null && (deepest == null || col.overlap > deepest.overlap)) {
+                    deepest = col;
+                }
+            }
+        }
+        return deepest;
+    }
+
+    /**Som findOverlap, för kroppar där minst en saknar CollisionMesh, t.ex. för att den
+     * är för tunn för att bli polygoner. Varje kropps kantpunkter testas mot den andra
+     * kroppens avståndsfält, på samma sätt som i checkCollision med en rektangel.
+     *
+     * @return null om kropparna inte överlappar, annars en Collision med normalen riktad från b mot a
+     */
+    private static Collision findFieldOverlap(RigidBody a, RigidBody b) {
+        //kollisionsradien går till pixlarnas mittpunkter, kanten ligger upp till en pixel längre ut
+        double dx = a.pos.x - b.pos.x;
+        double dy = a.pos.y - b.pos.y;
+        double radii = a.collisionRadius + b.collisionRadius + 2;
+        if(dx*dx + dy*dy >= radii*radii)
+            return null;
+
+        ContactSampler samplerA = new ContactSampler(a);
+        ContactSampler samplerB = new ContactSampler(b);
+        //a:s kant inuti b flyttar a ut ur b, b:s kant inuti a flyttar a bort från b
+        samplerA.sampleContourIn(samplerB);
+        samplerA.sampleContourOf(samplerB);
+        return samplerA.toCollision();
+    }
+
+    /**Separating axis theorem för två konvexa polygoner, med redan transformerade världskoordinater.
+     * Alla kantnormaler testas som separerande axlar. Den axel med minst överlapp
+     * blir kollisionens normal, riktad från b mot a. Kollisionspunkten är medelvärdet
+     * av de hörn som ligger inuti den andra polygonen.
      *
-     * @param points Lista av vektorer
-     * @return Medelvärdet, som en vektor
+     * @return null om det finns en separerande axel, annars kollisionsdata
      */
-    private static Vector avgPoint(ArrayList<Vector> points){
+    private static Collision separate(ConvexPolygon a, ConvexPolygon b) {
+        double minOverlap = Double.MAX_VALUE;
+        double normalX = 0, normalY = 0;
+        for (int k = 0; k < a.n + b.n; k++) {
+            ConvexPolygon polygon = k < a.n ? a : b;
+            int i = k < a.n ? k : k - a.n;
+            int next = (i + 1) % polygon.n;
+            double axisX = polygon.worldY[next] - polygon.worldY[i];
+            double axisY = polygon.worldX[i] - polygon.worldX[next];
+            double length = Math.sqrt(axisX*axisX + axisY*axisY);
+            if (length == 0)
+                continue;
+            axisX /= length;
+            axisY /= length;
 
-        Vector sum = new Vector();//summa för att beräkna medelvärdet
+            double overlap = Math.min(a.projectMax(axisX, axisY), b.projectMax(axisX, axisY))
+                    - Math.max(a.projectMin(axisX, axisY), b.projectMin(axisX, axisY));
+            if (overlap <= 0)
+                return null;
+            if (overlap < minOverlap) {
+                minOverlap = overlap;
+                normalX = axisX;
+                normalY = axisY;
+            }
+        }
 
-        for(Vector v : points) {
-            sum = sum.add(v);
+        //normalen ska peka från b mot a
+        if ((a.worldCenterX - b.worldCenterX) * normalX + (a.worldCenterY - b.worldCenterY) * normalY < 0) {
+            normalX = -normalX;
+            normalY = -normalY;
         }
 
-        return sum.divide(points.size());
+        int n = 0;
+        double sumX = 0, sumY = 0;
+        for (int i = 0; i < a.n; i++) {
+            if (b.containsWorldPoint(a.worldX[i], a.worldY[i])) {
+                n++;
+                sumX += a.worldX[i];
+                sumY += a.worldY[i];
+            }
+        }
+        for (int i = 0; i < b.n; i++) {
+            if (a.containsWorldPoint(b.worldX[i], b.worldY[i])) {
+                n++;
+                sumX += b.worldX[i];
+                sumY += b.worldY[i];
+            }
+        }
+
+        Collision col = new Collision();
+        if (n == 0) {
+            //kanterna korsar varandra utan att något hörn ligger inuti
+            col.point = new Vector((a.worldCenterX + b.worldCenterX) / 2, (a.worldCenterY + b.worldCenterY) / 2);
+        } else {
+            col.point = new Vector(sumX / n, sumY / n);
+        }
+        col.normal = new Vector(normalX, normalY);
+        col.overlap = minOverlap;
+        return col;
     }
 }
@@ -0,0 +1,458 @@
+package physics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * En polygonmodell av en kropps pixeldata, som alternativ till att arbeta med
+ * pixlarna direkt.
+ * <br/><br/>
+ * Konturerna hittas med marching squares, där varje pixel är ett sampel i sin mittpunkt.
+ * Konturen hamnar då på pixlarnas kanter, med avfasade hörn. Diagonala pixlar räknas
+ * som separata, på samma sätt som i splitImageIntoRigidBodies.
+ * <br/><br/>
+ * Massa, tyngdpunkt och tröghetsmoment räknas ut exakt från konturerna, hål inräknade.
+ * För kollisioner förenklas de yttre konturerna med Douglas-Peucker, och delas upp
+ * i konvexa delar: först trianguleras de med ear clipping, sedan slås trianglarna ihop
+ * så länge resultatet förblir konvext (Hertel-Mehlhorn). Hål ingår inte i de konvexa delarna, de räknas som fyllda vid kollision.
+ *
+ * @author Robin Lindh Nilsson
+ */
+public class CollisionMesh {
+
+	/** största tillåtna avvikelse i pixlar när konturerna förenklas för kollision */
+	public static final double TOLERANCE = 1.0;
+
+	private static final double EPSILON = 1e-9;
+
+	private final ArrayList<ConvexPolygon> pieces = new ArrayList<ConvexPolygon>();
+	private double area; //yta i pixlar
+	private double centroidX, centroidY; //tyngdpunkt i pixeldatans koordinatsystem
+	private double polarMoment; //ytans polära tröghetsmoment kring tyngdpunkten
+	private double radius; //största avstånd från tyngdpunkten till ett hörn
+
+	private CollisionMesh() {
+	}
+
+	/**
+	 * Skapar en polygonmodell av pixeldatan.
+	 * @param pixels pixeldata
+	 * @return modellen, eller null om pixeldatan inte innehåller någon kontur
+	 * som överlever förenklingen, t.ex. för linjer som bara är en pixel tjocka.
+	 * Kroppen får då kollidera med sina pixlar i stället, se RigidBody.updateShape
+	 */
+	public static CollisionMesh fromPixels(BitMask pixels) {
+		ArrayList<double[][]> loops = traceContours(pixels);
+
+		CollisionMesh mesh = new CollisionMesh();
+		//ytintegraler över alla konturer, hålen är medurs och drar därför ifrån.
+		//integralerna räknas på de oförenklade konturerna, som följer pixlarna exakt
+		//så när som på de avfasade hörnen
+		double sumX = 0, sumY = 0, sumJ = 0;
+		ArrayList<double[][]> outerLoops = new ArrayList<double[][]>();
+		for (double[][] loop : loops) {
+			double[] x = loop[0], y = loop[1];
+			double loopArea = 0;
+			for (int i = 0; i < x.length; i++) {
+				int next = (i + 1) % x.length;
+				double cross = x[i] * y[next] - x[next] * y[i];
+				loopArea += cross;
+				sumX += cross * (x[i] + x[next]);
+				sumY += cross * (y[i] + y[next]);
+				sumJ += cross * (x[i] * x[i] + x[i] * x[next] + x[next] * x[next]
+						+ y[i] * y[i] + y[i] * y[next] + y[next] * y[next]);
+			}
+			mesh.area += loopArea / 2;
+			if (loopArea > 0) {
+				//endast de yttre konturerna används vid kollision, förenklade
+				double[][] simple = simplify(x, y, TOLERANCE);
+				if (simple[0].length >= 3) {
+					outerLoops.add(simple);
+				}
+			}
+		}
+		if (mesh.area <= EPSILON) {
+			return null;
+		}
+
+		mesh.centroidX = sumX / (6 * mesh.area);
+		mesh.centroidY = sumY / (6 * mesh.area);
+		//flytta tröghetsmomentet från origo till tyngdpunkten (Steiners sats)
+		mesh.polarMoment = sumJ / 12 - mesh.area * (mesh.centroidX * mesh.centroidX + mesh.centroidY * mesh.centroidY);
+
+		for (double[][] loop : outerLoops) {
+			for (ArrayList<Integer> piece : decompose(loop[0], loop[1])) {
+				double[] x = new double[piece.size()];
+				double[] y = new double[piece.size()];
+				for (int i = 0; i < x.length; i++) {
+					x[i] = loop[0][piece.get(i)] - mesh.centroidX;
+					y[i] = loop[1][piece.get(i)] - mesh.centroidY;
+					mesh.radius = Math.max(mesh.radius, Math.sqrt(x[i] * x[i] + y[i] * y[i]));
+				}
+				mesh.pieces.add(new ConvexPolygon(x, y));
+			}
+		}
+		if (mesh.pieces.isEmpty()) {
+			return null; //inget att kollidera med
+		}
+		return mesh;
+	}
+
+	/**
+	 * Hittar alla konturer med marching squares.
+	 * Konturerna orienteras så att de yttre konturerna får positiv yta och hålen negativ.
+	 * @return en lista med konturer, var och en som {x[], y[]} i pixeldatans koordinatsystem
+	 */
+	private static ArrayList<double[][]> traceContours(BitMask pixels) {
+		int w = pixels.getWidth();
+		int h = pixels.getHeight();
+		//kantpunkterna ligger mitt emellan två sampel. Med dubblade koordinater
+		//hamnar de på heltal, i ett rutnät med (2w + 3) * (2h + 3) punkter
+		int gridW = 2 * w + 3;
+		int gridH = 2 * h + 3;
+		int[] next = new int[gridW * gridH];
+		Arrays.fill(next, -1);
+
+		//varje cell har hörnen a (uppe till vänster), b (uppe till höger),
+		//c (nere till höger) och d (nere till vänster). Cellen (-1, -1) har
+		//sitt hörn c i pixel (0, 0), så att konturen även sluts runt kanten
+		for (int cx = -1; cx < w; cx++) {
+			for (int cy = -1; cy < h; cy++) {
+				boolean a = pixels.get(cx, cy);
+				boolean b = pixels.get(cx + 1, cy);
+				boolean c = pixels.get(cx + 1, cy + 1);
+				boolean d = pixels.get(cx, cy + 1);
+				int top = point(gridH, 2 * cx + 2, 2 * cy + 1);
+				int right = point(gridH, 2 * cx + 3, 2 * cy + 2);
+				int bottom = point(gridH, 2 * cx + 2, 2 * cy + 3);
+				int left = point(gridH, 2 * cx + 1, 2 * cy + 2);
+
+				//segmentet skärs av runt ett enskilt hörn, eller rakt igenom cellen.
+				//riktningen väljs så att de fyllda hörnen hamnar till höger på skärmen,
+				//där y växer nedåt. Det ger positiv yta med den vanliga formeln
+				int filled = (a ? 1 : 0) + (b ? 1 : 0) + (c ? 1 : 0) + (d ? 1 : 0);
+				if (filled == 0 || filled == 4) {
+					continue;
+				}
+				if (filled == 2 && a == c) {
+					//sadelpunkt, hörnen räknas som separata
+					if (a) {
+						link(next, top, left);
+						link(next, bottom, right);
+					} else {
+						link(next, right, top);
+						link(next, left, bottom);
+					}
+				} else if (filled == 2) {
+					if (a && b) {
+						link(next, right, left);
+					} else if (c && d) {
+						link(next, left, right);
+					} else if (a && d) {
+						link(next, top, bottom);
+					} else {
+						link(next, bottom, top);
+					}
+				} else {
+					//ett fyllt hörn, eller ett tomt hörn bland tre fyllda
+					boolean inside = filled == 1;
+					if (a != !inside) {
+						link(next, inside ? top : left, inside ? left : top);
+					} else if (b != !inside) {
+						link(next, inside ? right : top, inside ? top : right);
+					} else if (c != !inside) {
+						link(next, inside ? bottom : right, inside ? right : bottom);
+					} else {
+						link(next, inside ? left : bottom, inside ? bottom : left);
+					}
+				}
+			}
+		}
+
+		//följ länkarna runt varje kontur
+		ArrayList<double[][]> loops = new ArrayList<double[][]>();
+		ArrayList<Integer> loop = new ArrayList<Integer>();
+		for (int start = 0; start < next.length; start++) {
+			if (next[start] == -1) {
+				continue;
+			}
+			loop.clear();
+			int p = start;
+			while (next[p] != -1) {
+				loop.add(p);
+				int q = next[p];
+				next[p] = -1;
+				p = q;
+			}
+			double[] x = new double[loop.size()];
+			double[] y = new double[loop.size()];
+			for (int i = 0; i < x.length; i++) {
+				x[i] = (loop.get(i) / gridH - 1) * 0.5;
+				y[i] = (loop.get(i) % gridH - 1) * 0.5;
+			}
+			loops.add(new double[][]{x, y});
+		}
+		return loops;
+	}
+
+	private static int point(int gridH, int x2, int y2) {
+		//dubblade koordinater, förskjutna så att cellen (-1, -1) hamnar innanför rutnätet
+		return (x2 + 1) * gridH + (y2 + 1);
+	}
+
+	private static void link(int[] next, int from, int to) {
+		next[from] = to;
+	}
+
+	/**
+	 * Förenklar en sluten kontur med Douglas-Peucker.
+	 * Konturen delas först i två halvor, vid hörnet längst bort från det första hörnet.
+	 * @return den förenklade konturen som {x[], y[]}, med samma orientering
+	 */
+	static double[][] simplify(double[] x, double[] y, double tolerance) {
+		int n = x.length;
+		if (n < 4) {
+			return new double[][]{x, y};
+		}
+		int far = 0;
+		double farDistance = -1;
+		for (int i = 1; i < n; i++) {
+			double dx = x[i] - x[0], dy = y[i] - y[0];
+			if (dx * dx + dy * dy > farDistance) {
+				farDistance = dx * dx + dy * dy;
+				far = i;
+			}
+		}
+
+		boolean[] keep = new boolean[n];
+		keep[0] = true;
+		keep[far] = true;
+		simplifyChain(x, y, 0, far, tolerance, keep);
+		simplifyChain(x, y, far, n, tolerance, keep);
+
+		int kept = 0;
+		for (boolean k : keep) {
+			if (k) {
+				kept++;
+			}
+		}
+		double[] simpleX = new double[kept], simpleY = new double[kept];
+		int j = 0;
+		for (int i = 0; i < n; i++) {
+			if (keep[i]) {
+				simpleX[j] = x[i];
+				simpleY[j] = y[i];
+				j++;
+			}
+		}
+		return new double[][]{simpleX, simpleY};
+	}
+
+	/**
+	 * Douglas-Peucker för kedjan first..last, där index n betyder hörn 0.
+	 * Använder en egen stack istället för rekursion.
+	 */
+	private static void simplifyChain(double[] x, double[] y, int first, int last, double tolerance, boolean[] keep) {
+		int n = x.length;
+		ArrayList<int[]> stack = new ArrayList<int[]>();
+		stack.add(new int[]{first, last});
+		while (!stack.isEmpty()) {
+			int[] chain = stack.remove(stack.size() - 1);
+			int from = chain[0], to = chain[1];
+			double ax = x[from % n], ay = y[from % n];
+			double dx = x[to % n] - ax, dy = y[to % n] - ay;
+			double length = Math.sqrt(dx * dx + dy * dy);
+
+			int worst = -1;
+			double worstDistance = tolerance;
+			for (int i = from + 1; i < to; i++) {
+				double distance;
+				if (length < EPSILON) {
+					distance = Math.hypot(x[i] - ax, y[i] - ay);
+				} else {
+					distance = Math.abs(dx * (y[i] - ay) - dy * (x[i] - ax)) / length;
+				}
+				if (distance > worstDistance) {
+					worstDistance = distance;
+					worst = i;
+				}
+			}
+			if (worst != -1) {
+				keep[worst] = true;
+				stack.add(new int[]{from, worst});
+				stack.add(new int[]{worst, to});
+			}
+		}
+	}
+
+	/**
+	 * Delar upp en moturs orienterad, enkel polygon i konvexa delar.
+	 * @return delarna som listor med index till polygonens hörn, moturs
+	 */
+	static ArrayList<ArrayList<Integer>> decompose(double[] x, double[] y) {
+		ArrayList<ArrayList<Integer>> pieces = triangulate(x, y);
+
+		//Hertel-Mehlhorn: slå ihop två delar som delar en kant, om resultatet är konvext
+		boolean merged = true;
+		while (merged) {
+			merged = false;
+			search:
+			for (int p = 0; p < pieces.size(); p++) {
+				for (int q = p + 1; q < pieces.size(); q++) {
+					ArrayList<Integer> union = merge(pieces.get(p), pieces.get(q));
+					if (union != null && isConvex(x, y, union)) {
+						pieces.set(p, union);
+						pieces.remove(q);
+						merged = true;
+						break search;
+					}
+				}
+			}
+		}
+		return pieces;
+	}
+
+	/**
+	 * Triangulerar en moturs orienterad, enkel polygon med ear clipping.
+	 * Hörn som ligger på en rak linje hoppas över.
+	 */
+	private static ArrayList<ArrayList<Integer>> triangulate(double[] x, double[] y) {
+		ArrayList<ArrayList<Integer>> triangles = new ArrayList<ArrayList<Integer>>();
+		ArrayList<Integer> remaining = new ArrayList<Integer>();
+		for (int i = 0; i < x.length; i++) {
+			remaining.add(i);
+		}
+
+		int failures = 0;
+		int i = 0;
+		while (remaining.size() > 3 && failures < remaining.size()) {
+			int n = remaining.size();
+			int prev = remaining.get((i + n - 1) % n);
+			int curr = remaining.get(i % n);
+			int next = remaining.get((i + 1) % n);
+			double cross = cross(x, y, prev, curr, next);
+			if (Math.abs(cross) < EPSILON) {
+				//hörnet tillför ingenting
+				remaining.remove(i % n);
+				failures = 0;
+				continue;
+			}
+			if (cross > 0 && isEar(x, y, remaining, prev, curr, next)) {
+				triangles.add(triangle(prev, curr, next));
+				remaining.remove(i % n);
+				failures = 0;
+				continue;
+			}
+			i = (i + 1) % n;
+			failures++;
+		}
+		//klarar vi inte att hitta fler öron är polygonen inte enkel,
+		//t.ex. efter förenklingen. Resten behandlas som en solfjäder från första hörnet
+		for (int k = 1; k + 1 < remaining.size(); k++) {
+			int a = remaining.get(0), b = remaining.get(k), c = remaining.get(k + 1);
+			if (cross(x, y, a, b, c) > EPSILON) {
+				triangles.add(triangle(a, b, c));
+			}
+		}
+		return triangles;
+	}
+
+	private static ArrayList<Integer> triangle(int a, int b, int c) {
+		ArrayList<Integer> triangle = new ArrayList<Integer>(3);
+		triangle.add(a);
+		triangle.add(b);
+		triangle.add(c);
+		return triangle;
+	}
+
+	private static boolean isEar(double[] x, double[] y, ArrayList<Integer> remaining, int prev, int curr, int next) {
+		for (int k : remaining) {
+			if (k == prev || k == curr || k == next) {
+				continue;
+			}
+			//inget annat hörn får ligga inuti eller på kanten av triangeln
+			if (cross(x, y, prev, curr, k) >= 0 && cross(x, y, curr, next, k) >= 0
+					&& cross(x, y, next, prev, k) >= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Slår ihop två moturs orienterade polygoner som delar en kant.
+	 * @return den sammanslagna polygonen, eller null om de inte delar någon kant
+	 */
+	private static ArrayList<Integer> merge(ArrayList<Integer> p, ArrayList<Integer> q) {
+		for (int i = 0; i < p.size(); i++) {
+			int u = p.get(i);
+			int v = p.get((i + 1) % p.size());
+			for (int j = 0; j < q.size(); j++) {
+				if (q.get(j) == v && q.get((j + 1) % q.size()) == u) {
+					//p från v runt till u, sedan q från u runt till v
+					ArrayList<Integer> union = new ArrayList<Integer>(p.size() + q.size() - 2);
+					for (int k = 1; k <= p.size(); k++) {
+						union.add(p.get((i + k) % p.size()));
+					}
+					for (int k = 2; k < q.size(); k++) {
+						union.add(q.get((j + k) % q.size()));
+					}
+					return union;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static boolean isConvex(double[] x, double[] y, ArrayList<Integer> polygon) {
+		int n = polygon.size();
+		for (int i = 0; i < n; i++) {
+			if (cross(x, y, polygon.get(i), polygon.get((i + 1) % n), polygon.get((i + 2) % n)) < -EPSILON) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return kryssprodukten (b - a) x (c - b), positiv om a, b, c svänger moturs
+	 */
+	private static double cross(double[] x, double[] y, int a, int b, int c) {
+		return (x[b] - x[a]) * (y[c] - y[b]) - (y[b] - y[a]) * (x[c] - x[b]);
+	}
+
+	/**
+	 * @return de konvexa delarna, med hörnen relativt tyngdpunkten
+	 */
+	public ArrayList<ConvexPolygon> getPieces() {
+		return pieces;
+	}
+
+	/**
+	 * @return ytan i pixlar
+	 */
+	public double getArea() {
+		return area;
+	}
+
+	/**
+	 * @return tyngdpunkten i pixeldatans koordinatsystem
+	 */
+	public Vector getCentroid() {
+		return new Vector(centroidX, centroidY);
+	}
+
+	/**
+	 * @return ytans polära tröghetsmoment kring tyngdpunkten, multiplicera med densiteten för att få kroppens
+	 */
+	public double getPolarMoment() {
+		return polarMoment;
+	}
+
+	/**
+	 * @return största avståndet från tyngdpunkten till ett hörn
+	 */
+	public double getRadius() {
+		return radius;
+	}
+}
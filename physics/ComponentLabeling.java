@@ -0,0 +1,306 @@
+package physics;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Delar upp en mask i sammanhängande grupper av fyllda pixlar, där pixlar som
+ * ligger bredvid varandra horisontellt eller vertikalt hör till samma grupp.
+ * <br/><br/>
+ * Masken gås igenom ruta för ruta, se TiledMask, och endast rutor med fyllda pixlar
+ * behandlas. Uppdelningen görs i två genomgångar med union-find. Den första
+ * genomgången slår ihop varje fylld pixel med sina fyllda grannar till vänster och
+ * ovanför inom rutan, och sedan sys rutorna ihop längs sina kanter. Den andra ger
+ * varje pixel sin grupps nummer och räknar ut gruppernas omslutande rektanglar.
+ * Därefter kopieras varje grupp till en egen mask, beskuren till rektangeln.
+ * Totalt tar det linjär tid i rutornas yta.
+ * <br/><br/>
+ * Den första genomgången kan göras parallellt över rutorna. Ingen data delas mellan
+ * två uppdelningar, så flera masker kan delas upp samtidigt från olika trådar.
+ *
+ * @author Robin Lindh Nilsson
+ */
+public class ComponentLabeling {
+
+	private static final int TILE_SIZE = TiledMask.TILE_SIZE;
+	private static final int TILE_AREA = TILE_SIZE * TILE_SIZE;
+	/** minsta antal rutor per uppgift när uppdelningen görs parallellt */
+	private static final int MIN_TILES_PER_TASK = 4;
+
+	private final HashMap<Long, Integer> tileIndex = new HashMap<Long, Integer>(); //rutans plats i labels
+	//gruppernas nummer, TILE_AREA värden per ruta, rad för rad inom rutan.
+	//0 för tomma pixlar, annars gruppens index + 1
+	private final int[] labels;
+	private final ArrayList<Component> components = new ArrayList<Component>();
+
+	/**
+	 * En sammanhängande grupp av fyllda pixlar.
+	 */
+	public static class Component {
+
+		/** gruppens pixlar, beskurna till bounds. Pixel (0, 0) är pixel (bounds.x, bounds.y) i den ursprungliga masken */
+		public final BitMask pixels;
+		/** gruppens omslutande rektangel, i den ursprungliga maskens koordinater */
+		public final Rectangle bounds;
+
+		Component(BitMask pixels, Rectangle bounds) {
+			this.pixels = pixels;
+			this.bounds = bounds;
+		}
+
+		/**
+		 * @return var pixel (0, 0) i gruppens mask ligger i den ursprungliga masken
+		 */
+		public Vector getOffset() {
+			return new Vector(bounds.x, bounds.y);
+		}
+	}
+
+	/**
+	 * Delar upp masken i grupper.
+	 * @param pixels masken som ska delas upp. Ändras inte.
+	 * @param parallel true för att göra den första genomgången parallellt på ForkJoinPool
+	 */
+	public ComponentLabeling(BitMask pixels, boolean parallel) {
+		this(TiledMask.fromMask(pixels, 0, 0), parallel);
+	}
+
+	/**
+	 * Delar upp en gles mask i grupper.
+	 * @param pixels masken som ska delas upp. Ändras inte.
+	 * @param parallel true för att göra den första genomgången parallellt på ForkJoinPool
+	 */
+	public ComponentLabeling(TiledMask pixels, boolean parallel) {
+		ArrayList<Long> keys = pixels.getTileKeys();
+		BitMask[] tiles = new BitMask[keys.size()];
+		for (int t = 0; t < tiles.length; t++) {
+			tileIndex.put(keys.get(t), t);
+			tiles[t] = pixels.getTile(TiledMask.keyX(keys.get(t)), TiledMask.keyY(keys.get(t)));
+		}
+
+		//först föräldern för pixel k = t * TILE_AREA + y * TILE_SIZE + x, aldrig större än k.
+		//Blir sedan gruppernas nummer
+		labels = new int[tiles.length * TILE_AREA];
+		if (parallel && tiles.length >= 2 * MIN_TILES_PER_TASK) {
+			ForkJoinPool.commonPool().invoke(new LabelTiles(tiles, labels, 0, tiles.length));
+		} else {
+			for (int t = 0; t < tiles.length; t++) {
+				labelTile(tiles[t], labels, t);
+			}
+		}
+		stitchTiles(keys, tiles);
+		resolveLabels(keys, tiles);
+	}
+
+	/**
+	 * Första genomgången för en ruta. Rör bara pixlar inom rutan.
+	 */
+	private static void labelTile(BitMask tile, int[] parent, int t) {
+		int base = t * TILE_AREA;
+		for (int y = 0; y < TILE_SIZE; y++) {
+			for (int x = tile.nextSetBit(0, y); x != -1; x = tile.nextSetBit(x + 1, y)) {
+				int k = base + y * TILE_SIZE + x;
+				parent[k] = k;
+				if (x > 0 && tile.get(x - 1, y)) {
+					union(parent, k - 1, k);
+				}
+				if (y > 0 && tile.get(x, y - 1)) {
+					union(parent, k - TILE_SIZE, k);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Delar upp rutorna i två halvor som gås igenom parallellt.
+	 */
+	private static class LabelTiles extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final BitMask[] tiles;
+		private final int[] parent;
+		private final int start, end;
+
+		LabelTiles(BitMask[] tiles, int[] parent, int start, int end) {
+			this.tiles = tiles;
+			this.parent = parent;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start < 2 * MIN_TILES_PER_TASK) {
+				for (int t = start; t < end; t++) {
+					labelTile(tiles[t], parent, t);
+				}
+				return;
+			}
+			int middle = (start + end) / 2;
+			invokeAll(new LabelTiles(tiles, parent, start, middle),
+					new LabelTiles(tiles, parent, middle, end));
+		}
+	}
+
+	/**
+	 * Slår ihop pixlarna längs varje rutas vänstra och övre kant med grannrutans.
+	 */
+	private void stitchTiles(ArrayList<Long> keys, BitMask[] tiles) {
+		for (int t = 0; t < tiles.length; t++) {
+			int tx = TiledMask.keyX(keys.get(t)), ty = TiledMask.keyY(keys.get(t));
+			BitMask tile = tiles[t];
+
+			Integer left = tileIndex.get(TiledMask.key(tx - 1, ty));
+			if (left != null) {
+				for (int y = 0; y < TILE_SIZE; y++) {
+					if (tile.get(0, y) && tiles[left].get(TILE_SIZE - 1, y)) {
+						union(labels, t * TILE_AREA + y * TILE_SIZE, left * TILE_AREA + y * TILE_SIZE + TILE_SIZE - 1);
+					}
+				}
+			}
+			Integer above = tileIndex.get(TiledMask.key(tx, ty - 1));
+			if (above != null) {
+				int lastRow = (TILE_SIZE - 1) * TILE_SIZE;
+				for (int x = tile.nextSetBit(0, 0); x != -1; x = tile.nextSetBit(x + 1, 0)) {
+					if (tiles[above].get(x, TILE_SIZE - 1)) {
+						union(labels, t * TILE_AREA + x, above * TILE_AREA + lastRow + x);
+					}
+				}
+			}
+		}
+	}
+
+	private static int find(int[] parent, int k) {
+		while (parent[k] != k) {
+			parent[k] = parent[parent[k]];
+			k = parent[k];
+		}
+		return k;
+	}
+
+	/**
+	 * Slår ihop grupperna för pixel a och b. Roten blir alltid den lägsta pixeln,
+	 * så att resultatet inte beror på i vilken ordning pixlarna slås ihop.
+	 */
+	private static void union(int[] parent, int a, int b) {
+		int rootA = find(parent, a);
+		int rootB = find(parent, b);
+		if (rootA < rootB) {
+			parent[rootB] = rootA;
+		} else if (rootB < rootA) {
+			parent[rootA] = rootB;
+		}
+	}
+
+	/**
+	 * Andra genomgången: ger varje pixel sin grupps nummer, sorterar grupperna och
+	 * kopierar dem till egna masker.
+	 */
+	private void resolveLabels(ArrayList<Long> keys, BitMask[] tiles) {
+		//rötterna är de lägsta pixlarna, så i stigande ordning är föräldern redan klar.
+		//Varje pixel får -(grupp + 1), i den ordning rötterna påträffas
+		int count = 0;
+		for (int t = 0; t < tiles.length; t++) {
+			for (int y = 0; y < TILE_SIZE; y++) {
+				for (int x = tiles[t].nextSetBit(0, y); x != -1; x = tiles[t].nextSetBit(x + 1, y)) {
+					int k = t * TILE_AREA + y * TILE_SIZE + x;
+					if (labels[k] == k) {
+						labels[k] = -(++count);
+					} else {
+						labels[k] = labels[labels[k]];
+					}
+				}
+			}
+		}
+
+		final int[] minX = new int[count];
+		int[] minY = new int[count];
+		int[] maxX = new int[count];
+		int[] maxY = new int[count];
+		final int[] firstY = new int[count]; //översta pixeln i gruppens vänstra kolumn
+		Arrays.fill(minX, Integer.MAX_VALUE);
+		Arrays.fill(minY, Integer.MAX_VALUE);
+		Arrays.fill(maxX, Integer.MIN_VALUE);
+		Arrays.fill(maxY, Integer.MIN_VALUE);
+		for (int t = 0; t < tiles.length; t++) {
+			int originX = TiledMask.keyX(keys.get(t)) * TILE_SIZE;
+			int originY = TiledMask.keyY(keys.get(t)) * TILE_SIZE;
+			for (int y = 0; y < TILE_SIZE; y++) {
+				for (int x = tiles[t].nextSetBit(0, y); x != -1; x = tiles[t].nextSetBit(x + 1, y)) {
+					int c = -labels[t * TILE_AREA + y * TILE_SIZE + x] - 1;
+					int gx = originX + x, gy = originY + y;
+					if (gx < minX[c] || (gx == minX[c] && gy < firstY[c])) {
+						minX[c] = gx;
+						firstY[c] = gy;
+					}
+					minY[c] = Math.min(minY[c], gy);
+					maxX[c] = Math.max(maxX[c], gx);
+					maxY[c] = Math.max(maxY[c], gy);
+				}
+			}
+		}
+
+		//grupperna sorteras efter sin första pixel kolumn för kolumn,
+		//så att den första vingen blir den som ligger längst till vänster
+		ArrayList<Integer> order = new ArrayList<Integer>(count);
+		for (int c = 0; c < count; c++) {
+			order.add(c);
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				if (minX[a] != minX[b]) {
+					return minX[a] < minX[b] ? -1 : 1;
+				}
+				return firstY[a] < firstY[b] ? -1 : (firstY[a] == firstY[b] ? 0 : 1);
+			}
+		});
+		int[] newIndex = new int[count];
+		BitMask[] masks = new BitMask[count];
+		for (int i = 0; i < count; i++) {
+			int c = order.get(i);
+			newIndex[c] = i;
+			Rectangle bounds = new Rectangle(minX[c], minY[c], maxX[c] - minX[c] + 1, maxY[c] - minY[c] + 1);
+			masks[i] = new BitMask(bounds.width, bounds.height);
+			components.add(new Component(masks[i], bounds));
+		}
+
+		for (int t = 0; t < tiles.length; t++) {
+			int originX = TiledMask.keyX(keys.get(t)) * TILE_SIZE;
+			int originY = TiledMask.keyY(keys.get(t)) * TILE_SIZE;
+			for (int y = 0; y < TILE_SIZE; y++) {
+				for (int x = tiles[t].nextSetBit(0, y); x != -1; x = tiles[t].nextSetBit(x + 1, y)) {
+					int k = t * TILE_AREA + y * TILE_SIZE + x;
+					int i = newIndex[-labels[k] - 1];
+					labels[k] = i + 1;
+					Rectangle bounds = components.get(i).bounds;
+					masks[i].set(originX + x - bounds.x, originY + y - bounds.y);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return grupperna, i den ordning deras första pixel påträffas kolumn för kolumn från vänster
+	 */
+	public ArrayList<Component> getComponents() {
+		return components;
+	}
+
+	/**
+	 * @return index i getComponents() för gruppen som pixeln tillhör, eller -1 för tomma pixlar
+	 */
+	public int getLabel(int x, int y) {
+		Integer t = tileIndex.get(TiledMask.key(TiledMask.tileOf(x), TiledMask.tileOf(y)));
+		if (t == null) {
+			return -1;
+		}
+		return labels[t * TILE_AREA + Math.floorMod(y, TILE_SIZE) * TILE_SIZE + Math.floorMod(x, TILE_SIZE)] - 1;
+	}
+}
@@ -0,0 +1,101 @@
+package physics;
+
+/**
+ * En konvex polygon, en del av en CollisionMesh.
+ * Hörnen lagras moturs, relativt kroppens tyngdpunkt och utan rotation.
+ * Polygonen har även en buffert med hörnen i världskoordinater, som fylls i
+ * av transform innan en kollisionskontroll, så att kontrollen inte skapar några objekt.
+ *
+ * @author Robin Lindh Nilsson
+ */
+public class ConvexPolygon {
+
+	public final int n; //antal hörn
+	public final double[] x, y; //lokala koordinater
+	public final double[] worldX, worldY; //senast transformerade världskoordinater
+	public double worldCenterX, worldCenterY; //medelvärdet av hörnen i världskoordinater
+
+	public ConvexPolygon(double[] x, double[] y) {
+		n = x.length;
+		this.x = x;
+		this.y = y;
+		worldX = new double[n];
+		worldY = new double[n];
+	}
+
+	/**
+	 * Skapar en rektangel direkt i världskoordinater.
+	 */
+	public static ConvexPolygon rectangle(double left, double top, double width, double height) {
+		//moturs i ett koordinatsystem där y växer nedåt blir medurs på skärmen
+		ConvexPolygon rect = new ConvexPolygon(
+				new double[]{left, left + width, left + width, left},
+				new double[]{top, top, top + height, top + height});
+		rect.transform(0, 0, 0);
+		return rect;
+	}
+
+	/**
+	 * Räknar ut hörnens världskoordinater, på samma sätt som kroppen ritas ut:
+	 * pos + R(-rotation) * lokal.
+	 */
+	public void transform(double posX, double posY, double rotation) {
+		double cos = Math.cos(rotation);
+		double sin = Math.sin(rotation);
+		worldCenterX = 0;
+		worldCenterY = 0;
+		for (int i = 0; i < n; i++) {
+			worldX[i] = posX + cos * x[i] + sin * y[i];
+			worldY[i] = posY - sin * x[i] + cos * y[i];
+			worldCenterX += worldX[i];
+			worldCenterY += worldY[i];
+		}
+		worldCenterX /= n;
+		worldCenterY /= n;
+	}
+
+	/**
+	 * @return minsta projektionen av världshörnen på axeln (axisX, axisY)
+	 */
+	public double projectMin(double axisX, double axisY) {
+		double min = Double.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			min = Math.min(min, worldX[i] * axisX + worldY[i] * axisY);
+		}
+		return min;
+	}
+
+	/**
+	 * @return största projektionen av världshörnen på axeln (axisX, axisY)
+	 */
+	public double projectMax(double axisX, double axisY) {
+		double max = -Double.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			max = Math.max(max, worldX[i] * axisX + worldY[i] * axisY);
+		}
+		return max;
+	}
+
+	/**
+	 * Kontrollerar om en punkt i världskoordinater ligger inuti polygonen,
+	 * enligt de senast transformerade världskoordinaterna.
+	 */
+	public boolean containsWorldPoint(double px, double py) {
+		//punkten måste ligga på samma sida om alla kanter
+		boolean positive = false, negative = false;
+		for (int i = 0; i < n; i++) {
+			int next = (i + 1) % n;
+			double cross = (worldX[next] - worldX[i]) * (py - worldY[i])
+					- (worldY[next] - worldY[i]) * (px - worldX[i]);
+			if (cross > 0) {
+				positive = true;
+			} else if (cross < 0) {
+				negative = true;
+			}
+			if (positive && negative) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
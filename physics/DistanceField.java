@@ -0,0 +1,175 @@
+package physics;
+
+/**
+ * Ett signerat avståndsfält för en kropps pixeldata.
+ * Fältet lagrar, för varje pixel, avståndet till kroppens kant: negativt inuti kroppen,
+ * positivt utanför. Kanten ligger på pixlarnas kanter, mitt emellan en fylld och en tom pixel.
+ * Runt pixeldatan finns en marginal med tomma pixlar, så att fältet även är definierat
+ * strax utanför kroppen.
+ * <br/><br/>
+ * Fältet räknas ut en gång när kroppens form beräknas, med en exakt euklidisk
+ * avståndstransform (Felzenszwalb och Huttenlocher) som går i linjär tid.
+ * Därefter kostar varje fråga om avstånd eller normal ett fast antal uppslag.
+ *
+ * @author Robin Lindh Nilsson
+ */
+public class DistanceField {
+
+	/** antal tomma pixlar runt pixeldatan */
+	public static final int MARGIN = 2;
+
+	private static final double INFINITY = 1e20;
+
+	private final int w, h; //fältets dimensioner, inklusive marginalen
+	private final float[] distances; //w * h värden, kolumn för kolumn
+
+	/**
+	 * Räknar ut avståndsfältet för pixeldatan.
+	 * @param pixels pixeldata
+	 */
+	public DistanceField(BitMask pixels) {
+		w = pixels.getWidth() + 2 * MARGIN;
+		h = pixels.getHeight() + 2 * MARGIN;
+		distances = new float[w * h];
+
+		//kvadrerat avstånd till närmaste fyllda respektive tomma pixel
+		double[] toFilled = new double[w * h];
+		double[] toEmpty = new double[w * h];
+		for (int i = 0; i < w; i++) {
+			for (int j = 0; j < h; j++) {
+				boolean filled = pixels.get(i - MARGIN, j - MARGIN);
+				toFilled[i * h + j] = filled ? 0 : INFINITY;
+				toEmpty[i * h + j] = filled ? INFINITY : 0;
+			}
+		}
+		transform(toFilled);
+		transform(toEmpty);
+
+		for (int k = 0; k < w * h; k++) {
+			//mittpunkterna ligger en halv pixel innanför kanten
+			if (toFilled[k] == 0) {
+				distances[k] = (float) -(Math.sqrt(toEmpty[k]) - 0.5);
+			} else {
+				distances[k] = (float) (Math.sqrt(toFilled[k]) - 0.5);
+			}
+		}
+	}
+
+	/**
+	 * Tvådimensionell avståndstransform, som en endimensionell transform
+	 * först längs varje kolumn och sedan längs varje rad.
+	 */
+	private void transform(double[] grid) {
+		int n = Math.max(w, h);
+		double[] f = new double[n];
+		double[] d = new double[n];
+		int[] v = new int[n];
+		double[] z = new double[n + 1];
+
+		for (int i = 0; i < w; i++) {
+			for (int j = 0; j < h; j++) {
+				f[j] = grid[i * h + j];
+			}
+			transform(f, h, d, v, z);
+			for (int j = 0; j < h; j++) {
+				grid[i * h + j] = d[j];
+			}
+		}
+		for (int j = 0; j < h; j++) {
+			for (int i = 0; i < w; i++) {
+				f[i] = grid[i * h + j];
+			}
+			transform(f, w, d, v, z);
+			for (int i = 0; i < w; i++) {
+				grid[i * h + j] = d[i];
+			}
+		}
+	}
+
+	/**
+	 * Endimensionell avståndstransform: d[q] = min över p av (q - p)^2 + f[p].
+	 * Räknas ut som den nedre enveloppen av parablerna med topp i varje p.
+	 */
+	private static void transform(double[] f, int n, double[] d, int[] v, double[] z) {
+		int k = 0;
+		v[0] = 0;
+		z[0] = -INFINITY;
+		z[1] = INFINITY;
+		for (int q = 1; q < n; q++) {
+			double s = intersection(f, q, v[k]);
+			while (s <= z[k]) {
+				k--;
+				s = intersection(f, q, v[k]);
+			}
+			k++;
+			v[k] = q;
+			z[k] = s;
+			z[k + 1] = INFINITY;
+		}
+		k = 0;
+		for (int q = 0; q < n; q++) {
+			while (z[k + 1] < q) {
+				k++;
+			}
+			d[q] = (q - v[k]) * (q - v[k]) + f[v[k]];
+		}
+	}
+
+	/**
+	 * @return x-koordinaten där parablerna med topp i q och p skär varandra
+	 */
+	private static double intersection(double[] f, int q, int p) {
+		return ((f[q] + q * q) - (f[p] + p * p)) / (2.0 * q - 2.0 * p);
+	}
+
+	/**
+	 * Avståndet till kroppens kant, bilinjärt interpolerat mellan pixlarnas mittpunkter.
+	 * Utanför fältet returneras ett positivt avstånd som räcker för att punkten
+	 * inte ska räknas som inuti kroppen.
+	 * @param x koordinat i pixeldatans koordinatsystem, där pixel i täcker [i, i+1)
+	 * @param y koordinat i pixeldatans koordinatsystem
+	 * @return signerat avstånd i pixlar, negativt inuti kroppen
+	 */
+	public double distance(double x, double y) {
+		double gx = x - 0.5 + MARGIN;
+		double gy = y - 0.5 + MARGIN;
+		if (gx < 0 || gy < 0 || gx > w - 1 || gy > h - 1) {
+			return MARGIN;
+		}
+		int i = Math.min((int) gx, w - 2);
+		int j = Math.min((int) gy, h - 2);
+		double fx = gx - i;
+		double fy = gy - j;
+		int k = i * h + j;
+		double top = distances[k] * (1 - fx) + distances[k + h] * fx;
+		double bottom = distances[k + 1] * (1 - fx) + distances[k + h + 1] * fx;
+		return top * (1 - fy) + bottom * fy;
+	}
+
+	/**
+	 * Avståndsfältets gradient, som pekar ut från kroppen. Räknas som derivatan av
+	 * den bilinjära interpolationen, med samma fyra uppslag som distance.
+	 * @param x koordinat i pixeldatans koordinatsystem
+	 * @param y koordinat i pixeldatans koordinatsystem
+	 * @return gradienten, normaliserad, eller en nollvektor där fältet saknar riktning
+	 */
+	public Vector gradient(double x, double y) {
+		double gx = x - 0.5 + MARGIN;
+		double gy = y - 0.5 + MARGIN;
+		if (gx < 0 || gy < 0 || gx > w - 1 || gy > h - 1) {
+			return new Vector();
+		}
+		int i = Math.min((int) gx, w - 2);
+		int j = Math.min((int) gy, h - 2);
+		double fx = gx - i;
+		double fy = gy - j;
+		int k = i * h + j;
+		double dx = (distances[k + h] - distances[k]) * (1 - fy) + (distances[k + h + 1] - distances[k + 1]) * fy;
+		double dy = (distances[k + 1] - distances[k]) * (1 - fx) + (distances[k + h + 1] - distances[k + h]) * fx;
+		double length = Math.sqrt(dx * dx + dy * dy);
+		if (length == 0) {
+			return new Vector();
+		}
+		return new Vector(dx / length, dy / length);
+	}
+}
@@ -0,0 +1,20 @@
+package physics;
+
+/**
+ * Något som ger upphov till krafter på en eller flera kroppar i en World,
+ * t.ex. en fjädrande koppling eller en motor.
+ *
+ * @author Robinerd
+ */
+public interface ForceGenerator {
+
+	/**
+	 * Lägger till krafterna för det givna tillståndet i världens kraft-ackumulatorer,
+	 * via World.applyForce och World.applyTorque.
+	 * Anropas en gång för varje steg i RK4-integrationen, så metoden
+	 * bör inte skapa några nya objekt.
+	 * @param world världen som integreras
+	 * @param state hela världens tillstånd, se World för layouten
+	 */
+	public void applyForces(World world, double[] state);
+}
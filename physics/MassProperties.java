@@ -0,0 +1,120 @@
+package physics;
+
+/**
+ * Samlar ihop råa moment för en mängd pixlar: antal, summan av x och y
+ * och summan av x² och y². Ur dessa fås massa, tyngdpunkt och tröghetsmoment
+ * utan att pixlarna behöver gås igenom igen.
+ * <br/><br/>
+ * Pixlar kan läggas till och tas bort en i taget, till fast kostnad, t.ex. när
+ * en del skadas eller ritas om. Summorna lagras som heltal, så att en pixel som
+ * läggs till och sedan tas bort inte lämnar något avrundningsfel efter sig.
+ * <br/><br/>
+ * Utöver momenten hålls en omslutande rektangel, som ger kollisionsradien.
+ * Rektangeln krymper inte när pixlar tas bort, radien är därför alltid
+ * minst så stor som den behöver vara.
+ *
+ * @author Robin Lindh Nilsson
+ */
+public class MassProperties {
+
+	private long n;
+	private long sumX, sumY;
+	private long sumXX, sumYY;
+	private int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+	private int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+
+	public MassProperties() {
+	}
+
+	public MassProperties(MassProperties copy) {
+		n = copy.n;
+		sumX = copy.sumX;
+		sumY = copy.sumY;
+		sumXX = copy.sumXX;
+		sumYY = copy.sumYY;
+		minX = copy.minX;
+		minY = copy.minY;
+		maxX = copy.maxX;
+		maxY = copy.maxY;
+	}
+
+	/**
+	 * Samlar ihop momenten för alla fyllda pixlar i masken, i en enda genomgång.
+	 */
+	public MassProperties(BitMask pixels) {
+		for (int y = 0; y < pixels.getHeight(); y++) {
+			for (int x = pixels.nextSetBit(0, y); x != -1; x = pixels.nextSetBit(x + 1, y)) {
+				add(x, y);
+			}
+		}
+	}
+
+	public void add(int x, int y) {
+		n++;
+		sumX += x;
+		sumY += y;
+		sumXX += (long) x * x;
+		sumYY += (long) y * y;
+		minX = Math.min(minX, x);
+		minY = Math.min(minY, y);
+		maxX = Math.max(maxX, x);
+		maxY = Math.max(maxY, y);
+	}
+
+	/**
+	 * Tar bort en pixel som tidigare lagts till.
+	 */
+	public void remove(int x, int y) {
+		n--;
+		sumX -= x;
+		sumY -= y;
+		sumXX -= (long) x * x;
+		sumYY -= (long) y * y;
+	}
+
+	/**
+	 * @return antalet pixlar
+	 */
+	public long getCount() {
+		return n;
+	}
+
+	/**
+	 * @return tyngdpunkten, eller null om det inte finns några pixlar
+	 */
+	public Vector getCentroid() {
+		if (n == 0) {
+			return null;
+		}
+		return new Vector((double) sumX / n, (double) sumY / n);
+	}
+
+	/**
+	 * @return summan av kvadraten på alla pixlars avstånd till tyngdpunkten.
+	 * Multiplicera med massan per pixel för att få tröghetsmomentet.
+	 */
+	public double getSecondMoment() {
+		if (n == 0) {
+			return 0;
+		}
+		//summan av (x - cx)² = summan av x² - n * cx²
+		double centerX = (double) sumX / n;
+		double centerY = (double) sumY / n;
+		return sumXX + sumYY - n * (centerX * centerX + centerY * centerY);
+	}
+
+	/**
+	 * @return största avståndet från tyngdpunkten till den omslutande rektangelns hörn,
+	 * eller 0 om det inte finns några pixlar
+	 */
+	public double getRadius() {
+		if (n == 0) {
+			return 0;
+		}
+		double centerX = (double) sumX / n;
+		double centerY = (double) sumY / n;
+		double dx = Math.max(centerX - minX, maxX - centerX);
+		double dy = Math.max(centerY - minY, maxY - centerY);
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+}
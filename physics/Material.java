@@ -1,23 +1,21 @@
 
 package physics;
 
-import java.awt.Color;
-
 /**
  *
  * @author Robinerd
  */
 public enum Material {
-	WING_MATERIAL(1, Color.BLACK),
-	STRUCTURE_MATERIAL(0.2f, Color.lightGray),
-	NULL_MATERIAL(0, Color.white);
+	WING_MATERIAL(1, 0xff000000), //svart
+	STRUCTURE_MATERIAL(0.2f, 0xffc0c0c0), //ljusgrå
+	NULL_MATERIAL(0, 0xffffffff); //vit
 
 	public double density;
-	public Color color;
+	public int rgb; //färg i ARGB-format
 
-	private Material(double density, Color color) {
+	private Material(double density, int rgb) {
 		this.density = density;
-		this.color = color;
+		this.rgb = rgb;
 	}
 
 }
@@ -0,0 +1,52 @@
+package physics;
+
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
+
+/**
+ * Omvandlar bilder till pixeldata för fysiken.
+ * Fysikobjekten lagrar aldrig några bilder själva, utan endast en BitMask
+ * med en bit för varje fylld pixel. Vita och helt genomskinliga pixlar räknas som tomma.
+ * Bildklasserna som används här fungerar även med java.awt.headless=true.
+ *
+ * @author Robin Lindh Nilsson
+ */
+public class PixelMasks {
+
+	/**
+	 * @param image bilden att läsa
+	 * @return en mask med bildens dimensioner, med alla fyllda pixlar satta
+	 */
+	public static BitMask fromImage(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		BitMask pixels = new BitMask(width, height);
+		//läs en rad i taget, i samma ordning som masken lagras
+		int[] row = new int[width];
+		for (int j = 0; j < height; j++) {
+			image.getRGB(0, j, width, 1, row, 0, width);
+			for (int i = 0; i < width; i++) {
+				int rgb = row[i];
+				if (rgb != -1 && (rgb >>> 24) != 0) {
+					pixels.set(i, j);
+				}
+			}
+		}
+		return pixels;
+	}
+
+	/**
+	 * Läser in pixeldata från en bild i classpath.
+	 * @param path sökväg till bilden
+	 * @return pixeldata enligt fromImage, eller en tom mask om bilden inte kunde läsas
+	 */
+	public static BitMask load(String path) {
+		try {
+			return fromImage(ImageIO.read(PixelMasks.class.getClassLoader().getResource(path)));
+		} catch (Exception ex) {
+			System.err.println("Could not load image " + path + "\n");
+			ex.printStackTrace();
+			return new BitMask(1, 1);
+		}
+	}
+}
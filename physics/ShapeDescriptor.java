@@ -0,0 +1,170 @@
+package physics;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * En kropps form, uträknad från pixeldata: pixlarnas moment, avståndsfältet och
+ * punkterna på kanten. Formen ändras aldrig efter att den har skapats, och kan
+ * därför delas mellan alla kroppar med samma pixeldata, t.ex. alla motorer
+ * eller en del och vingen som skapas från den.
+ * <br/><br/>
+ * Former skapas med of(), som först letar efter en form med samma pixeldata bland
+ * de senast använda. Lika pixeldata räknas därför bara ut en gång. Avståndsfältet har
+ * ett värde per pixel, så formerna sparas bara så länge deras pixeldata tillsammans
+ * inte är större än MAX_PIXELS.
+ * Pixeldatan får inte ändras efter att formen har skapats.
+ *
+ * @author Robin Lindh Nilsson
+ */
+public final class ShapeDescriptor {
+
+	/** största sammanlagda storlek, bredd gånger höjd, för formerna som sparas för återanvändning */
+	private static final long MAX_PIXELS = 4 * 1024 * 1024;
+
+	//senast använda former, nyckeln är formens egen pixeldata
+	private static final Map<BitMask, ShapeDescriptor> cache = new LinkedHashMap<BitMask, ShapeDescriptor>(16, 0.75f, true);
+	private static long cachedPixels; //sammanlagd storlek för formerna i cache
+
+	private final BitMask pixels;
+	private final MassProperties massProperties;
+	private final Vector centroid; //null om formen är tom
+	private final DistanceField distanceField; //null om formen är tom
+	private final double[] contourX, contourY; //punkter på kanten, relativt centroid
+
+	/**
+	 * Hämtar formen för pixeldatan, och räknar ut den om den inte redan finns.
+	 * Kan anropas från flera trådar samtidigt.
+	 * @param pixels pixeldata. Kopieras om formen räknas ut, så masken kan ändras efteråt.
+	 * @return formen, med en egen kopia av pixeldatan
+	 */
+	public static ShapeDescriptor of(BitMask pixels) {
+		synchronized (cache) {
+			ShapeDescriptor shape = cache.get(pixels);
+			if (shape != null) {
+				return shape;
+			}
+		}
+		//räkna ut formen utanför låset, så att andra trådar kan räkna ut andra former under tiden
+		ShapeDescriptor shape = new ShapeDescriptor(new BitMask(pixels));
+		synchronized (cache) {
+			ShapeDescriptor existing = cache.get(pixels);
+			if (existing != null) {
+				return existing;
+			}
+			cache.put(shape.pixels, shape);
+			cachedPixels += shape.getSize();
+			evict();
+		}
+		return shape;
+	}
+
+	/**
+	 * Tar bort de minst nyligen använda formerna tills de som finns kvar får plats
+	 * i MAX_PIXELS. Den senast tillagda formen behålls alltid. Anropas med cache låst.
+	 */
+	private static void evict() {
+		Iterator<ShapeDescriptor> eldest = cache.values().iterator();
+		while (cachedPixels > MAX_PIXELS && cache.size() > 1) {
+			cachedPixels -= eldest.next().getSize();
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * @return pixeldatans bredd gånger höjd
+	 */
+	private long getSize() {
+		return (long) pixels.getWidth() * pixels.getHeight();
+	}
+
+	private ShapeDescriptor(BitMask pixels) {
+		this.pixels = pixels;
+		massProperties = new MassProperties(pixels);
+		centroid = massProperties.getCentroid();
+		if (centroid == null) {
+			distanceField = null;
+			contourX = new double[0];
+			contourY = new double[0];
+			return;
+		}
+		distanceField = new DistanceField(pixels);
+
+		int contourLength = 0;
+		for (int j = 0; j < pixels.getHeight(); j++) {
+			for (int i = pixels.nextSetBit(0, j); i != -1; i = pixels.nextSetBit(i + 1, j)) {
+				if (isContourPixel(i, j)) {
+					contourLength++;
+				}
+			}
+		}
+
+		//kantpixlarna flyttas ut till avståndsfältets nollnivå, längs gradienten,
+		//så att kanten ligger där pixlarnas kant ligger och inte en halv pixel innanför
+		contourX = new double[contourLength];
+		contourY = new double[contourLength];
+		int k = 0;
+		for (int j = 0; j < pixels.getHeight(); j++) {
+			for (int i = pixels.nextSetBit(0, j); i != -1; i = pixels.nextSetBit(i + 1, j)) {
+				if (isContourPixel(i, j)) {
+					double x = i + 0.5, y = j + 0.5;
+					double distance = distanceField.distance(x, y);
+					Vector gradient = distanceField.gradient(x, y);
+					contourX[k] = x - distance * gradient.x - centroid.x;
+					contourY[k] = y - distance * gradient.y - centroid.y;
+					k++;
+				}
+			}
+		}
+	}
+
+	private boolean isContourPixel(int x, int y) {
+		//pixlar utanför masken räknas som tomma
+		return pixels.get(x, y) && (!pixels.get(x - 1, y) || !pixels.get(x + 1, y)
+				|| !pixels.get(x, y - 1) || !pixels.get(x, y + 1));
+	}
+
+	/**
+	 * @return pixeldata. Får inte ändras.
+	 */
+	public BitMask getPixels() {
+		return pixels;
+	}
+
+	/**
+	 * @return pixlarnas moment. Får inte ändras, kopiera dem först.
+	 */
+	public MassProperties getMassProperties() {
+		return massProperties;
+	}
+
+	public boolean isEmpty() {
+		return centroid == null;
+	}
+
+	/**
+	 * @return avståndsfältet, eller null om formen är tom
+	 */
+	public DistanceField getDistanceField() {
+		return distanceField;
+	}
+
+	/**
+	 * @return x-koordinaterna för punkterna på kanten, relativt pixlarnas tyngdpunkt. Får inte ändras.
+	 */
+	public double[] getContourX() {
+		return contourX;
+	}
+
+	/**
+	 * @return y-koordinaterna för punkterna på kanten, relativt pixlarnas tyngdpunkt. Får inte ändras.
+	 */
+	public double[] getContourY() {
+		return contourY;
+	}
+
+	public int getContourLength() {
+		return contourX.length;
+	}
+}
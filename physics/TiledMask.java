@@ -0,0 +1,136 @@
+package physics;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * En gles mask utan fasta gränser, uppdelad i rutor om TILE_SIZE gånger TILE_SIZE pixlar.
+ * Endast rutor med minst en fylld pixel finns lagrade, så minnet växer med den
+ * ritade ytan och inte med avståndet mellan det som ritats.
+ * Koordinaterna kan vara negativa. Ruta (tx, ty) täcker pixlarna
+ * [tx * TILE_SIZE, (tx + 1) * TILE_SIZE) gånger [ty * TILE_SIZE, (ty + 1) * TILE_SIZE).
+ *
+ * @author Robin Lindh Nilsson
+ */
+public class TiledMask {
+
+	/** rutornas storlek i pixlar */
+	public static final int TILE_SIZE = 128;
+
+	private final HashMap<Long, BitMask> tiles = new HashMap<Long, BitMask>();
+	private final ArrayList<Long> keys = new ArrayList<Long>(); //rutorna i den ordning de lades till
+
+	/**
+	 * Skapar en gles mask med samma pixlar som masken, där maskens pixel (0, 0) ligger i (originX, originY).
+	 */
+	public static TiledMask fromMask(BitMask mask, int originX, int originY) {
+		TiledMask tiled = new TiledMask();
+		for (int j = 0; j < mask.getHeight(); j++) {
+			for (int i = mask.nextSetBit(0, j); i != -1; i = mask.nextSetBit(i + 1, j)) {
+				tiled.set(originX + i, originY + j);
+			}
+		}
+		return tiled;
+	}
+
+	/**
+	 * @return nyckeln för ruta (tx, ty)
+	 */
+	public static long key(int tx, int ty) {
+		return ((long) tx << 32) | (ty & 0xffffffffL);
+	}
+
+	public static int keyX(long key) {
+		return (int) (key >> 32);
+	}
+
+	public static int keyY(long key) {
+		return (int) key;
+	}
+
+	/**
+	 * @return rutans koordinat för en pixelkoordinat, avrundat nedåt även för negativa koordinater
+	 */
+	public static int tileOf(int coordinate) {
+		return Math.floorDiv(coordinate, TILE_SIZE);
+	}
+
+	/**
+	 * @return true om pixeln är fylld
+	 */
+	public boolean get(int x, int y) {
+		BitMask tile = tiles.get(key(tileOf(x), tileOf(y)));
+		return tile != null && tile.get(Math.floorMod(x, TILE_SIZE), Math.floorMod(y, TILE_SIZE));
+	}
+
+	/**
+	 * Fyller en pixel, och skapar rutan om den inte finns.
+	 */
+	public void set(int x, int y) {
+		int tx = tileOf(x), ty = tileOf(y);
+		BitMask tile = getTile(tx, ty);
+		if (tile == null) {
+			tile = new BitMask(TILE_SIZE, TILE_SIZE);
+			tile.set(x - tx * TILE_SIZE, y - ty * TILE_SIZE);
+			setTile(tx, ty, tile);
+			return;
+		}
+		tile.set(x - tx * TILE_SIZE, y - ty * TILE_SIZE);
+	}
+
+	/**
+	 * @return rutan, eller null om den inte har några fyllda pixlar
+	 */
+	public BitMask getTile(int tx, int ty) {
+		return tiles.get(key(tx, ty));
+	}
+
+	/**
+	 * Lägger till en ruta. Tomma rutor lagras inte.
+	 * @param tile TILE_SIZE gånger TILE_SIZE pixlar. Ägs därefter av masken.
+	 */
+	public void setTile(int tx, int ty, BitMask tile) {
+		long key = key(tx, ty);
+		if (tile.isEmpty()) {
+			if (tiles.remove(key) != null) {
+				keys.remove(Long.valueOf(key));
+			}
+			return;
+		}
+		if (tiles.put(key, tile) == null) {
+			keys.add(key);
+		}
+	}
+
+	/**
+	 * @return nycklarna för alla lagrade rutor, se key(). Får inte ändras.
+	 */
+	public ArrayList<Long> getTileKeys() {
+		return keys;
+	}
+
+	public int getTileCount() {
+		return keys.size();
+	}
+
+	public boolean isEmpty() {
+		return keys.isEmpty();
+	}
+
+	/**
+	 * @return rektangeln som omsluter alla lagrade rutor, eller null om masken är tom
+	 */
+	public Rectangle getTileBounds() {
+		Rectangle bounds = null;
+		for (long key : keys) {
+			Rectangle tile = new Rectangle(keyX(key) * TILE_SIZE, keyY(key) * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+			if (bounds == null) {
+				bounds = tile;
+			} else {
+				bounds.add(tile);
+			}
+		}
+		return bounds;
+	}
+}
@@ -0,0 +1,152 @@
+package physics;
+
+import java.util.List;
+import physics.entities.RigidBody;
+
+/**
+ * Integrerar alla kroppar i en värld tillsammans, i ett enda RK4-steg.
+ * <br/><br/>
+ * Hela världens tillstånd lagras i en array, med STRIDE platser per kropp:
+ * position (X, Y), hastighet (VEL_X, VEL_Y), rotation och vinkelhastighet.
+ * Kroppens första plats ges av offset(body).
+ * <br/><br/>
+ * I varje steg av integrationen nollställs kraft-ackumulatorerna, och alla
+ * ForceGenerator-objekt (kopplingar, motorer) lägger till sina krafter utifrån
+ * stegets tillstånd. Därefter räknas accelerationerna ut för alla kroppar samtidigt,
+ * med gravitation. Resultatet beror därför inte på i vilken ordning kopplingarna ligger.
+ *
+ * @author Robinerd
+ */
+public class World extends InterpolatorRK4 {
+
+	public static final int X = 0, Y = 1, VEL_X = 2, VEL_Y = 3, ROTATION = 4, ANGULAR_VEL = 5;
+	public static final int STRIDE = 6;
+
+	private final RigidBody[] bodies;
+	private final ForceGenerator[] forceGenerators;
+	//kraft-ackumulatorer, en plats per kropp
+	private final double[] forceX, forceY, torque;
+	private double[] stageState; //tillståndet som deriveras just nu
+
+	/**
+	 * @param bodies kropparna som ska integreras. Tomma kroppar hoppas över.
+	 * @param forceGenerators allt som verkar med krafter på kropparna, utöver gravitationen
+	 */
+	public World(List<? extends RigidBody> bodies, List<? extends ForceGenerator> forceGenerators) {
+		super(countNonEmpty(bodies) * STRIDE);
+		this.bodies = new RigidBody[countNonEmpty(bodies)];
+		int i = 0;
+		for (RigidBody body : bodies) {
+			if (!body.isEmpty()) {
+				body.worldIndex = i;
+				this.bodies[i++] = body;
+			}
+		}
+		this.forceGenerators = forceGenerators.toArray(new ForceGenerator[forceGenerators.size()]);
+		forceX = new double[this.bodies.length];
+		forceY = new double[this.bodies.length];
+		torque = new double[this.bodies.length];
+	}
+
+	private static int countNonEmpty(List<? extends RigidBody> bodies) {
+		int n = 0;
+		for (RigidBody body : bodies) {
+			if (!body.isEmpty()) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return kroppens första plats i tillstånds-arrayen
+	 */
+	public static int offset(RigidBody body) {
+		return body.worldIndex * STRIDE;
+	}
+
+	/**
+	 * Flyttar fram hela världen tiden dt.
+	 * Kropparnas position, hastighet, rotation och vinkelhastighet skrivs tillbaka efteråt.
+	 * @param dt tid i sekunder
+	 */
+	public void step(double dt) {
+		for (RigidBody body : bodies) {
+			int o = offset(body);
+			state[o + X] = body.pos.x;
+			state[o + Y] = body.pos.y;
+			state[o + VEL_X] = body.vel.x;
+			state[o + VEL_Y] = body.vel.y;
+			state[o + ROTATION] = body.rotation;
+			state[o + ANGULAR_VEL] = body.angularVel;
+		}
+
+		integrate(dt);
+
+		for (RigidBody body : bodies) {
+			int o = offset(body);
+			body.pos.x = state[o + X];
+			body.pos.y = state[o + Y];
+			body.vel.x = state[o + VEL_X];
+			body.vel.y = state[o + VEL_Y];
+			body.rotation = state[o + ROTATION];
+			body.angularVel = state[o + ANGULAR_VEL];
+		}
+	}
+
+	@Override
+	protected void derivatives(double[] state, double time, double[] derivatives) {
+		for (int i = 0; i < bodies.length; i++) {
+			forceX[i] = 0;
+			forceY[i] = 0;
+			torque[i] = 0;
+		}
+
+		stageState = state;
+		for (ForceGenerator forceGenerator : forceGenerators) {
+			forceGenerator.applyForces(this, state);
+		}
+		stageState = null;
+
+		for (int i = 0; i < bodies.length; i++) {
+			RigidBody body = bodies[i];
+			int o = i * STRIDE;
+			//hastighet och vinkelhastighet
+			derivatives[o + X] = state[o + VEL_X];
+			derivatives[o + Y] = state[o + VEL_Y];
+			derivatives[o + ROTATION] = state[o + ANGULAR_VEL];
+			//F = m a, tao = I * alpha
+			derivatives[o + VEL_X] = forceX[i] / body.getMass();
+			derivatives[o + VEL_Y] = body.gravity + forceY[i] / body.getMass();
+			derivatives[o + ANGULAR_VEL] = torque[i] / body.getMomentInertia();
+		}
+	}
+
+	/**
+	 * Lägger till en kraft som verkar i en given punkt på kroppen.
+	 * Om punkten är skiljd från tyngdpunkten ger kraften även upphov till ett vridmoment.
+	 * Får endast anropas från ForceGenerator.applyForces.
+	 * @param body kroppen kraften verkar på
+	 * @param pointX kraftens angreppspunkt i världskoordinater
+	 * @param pointY kraftens angreppspunkt i världskoordinater
+	 */
+	public void applyForce(RigidBody body, double forceX, double forceY, double pointX, double pointY) {
+		int i = body.worldIndex;
+		int o = i * STRIDE;
+		this.forceX[i] += forceX;
+		this.forceY[i] += forceY;
+
+		//rotation axis, tao = r x F
+		double rX = pointX - stageState[o + X];
+		double rY = pointY - stageState[o + Y];
+		torque[i] += forceX * rY - forceY * rX;
+	}
+
+	/**
+	 * Lägger till ett vridmoment på kroppen.
+	 * Får endast anropas från ForceGenerator.applyForces.
+	 */
+	public void applyTorque(RigidBody body, double torque) {
+		this.torque[body.worldIndex] += torque;
+	}
+}
@@ -2,6 +2,7 @@
 package physics.entities;
 
 import physics.Vector;
+import physics.World;
 
 /**
  *
@@ -16,12 +17,6 @@ public class AngularSpringJoint extends StiffSpringJoint{
 	public void attach(RigidBody body1, RigidBody body2, Vector attachPointWorld) {
 		super.attach(body1, body2, attachPointWorld);
 		this.targetAngle = body1.rotation - body2.rotation;
-		interpolator = new AngularSpringInterpolatorRK4();
-	}
-
-	@Override
-	public void update(double dt) {
-		super.update(dt);
 	}
 
 	protected double getAngularSpringCoefficient() {
@@ -52,34 +47,31 @@ public class AngularSpringJoint extends StiffSpringJoint{
 		return angle;
 	}
 
-	protected class AngularSpringInterpolatorRK4 extends SpringInterpolatorRK4{
-
-		@Override
-		protected Vector[] derivatives1(State[] states, double time) {
-			Vector[] derivatives = super.derivatives1(states, time);
-			
-			//beräkna hur stor vinkeln fjädern är stretchad med
-			double angleDisplacement = targetAngle -
-					calcRelativeAngle(states[2].values[0].x, states[3].values[0].x);
-
-			if(Math.abs(angleDisplacement) > getAngularStretchLimit()) {
-				destroy();
-				return createZeroVectorArray();
-			}
-
-			double relativeAngularVelocity = states[2].values[1].x - states[3].values[1].x;
-			double springTorque = angleDisplacement * getAngularSpringCoefficient();
-			double dampingTorque = -relativeAngularVelocity * getAngularDampingCoefficient();
-			double torque = springTorque - dampingTorque;
-
-			//räkna ut andra värden på vinkelacceleration, ignorera värdena från super
-			//vinkelacceleration för body1
-			derivatives[2].add(new Vector(torque / body1.getMomentInertia(), 0)); //y-komposanten används ej
-			//vinkelacceleration för body2
-			derivatives[3].add(new Vector(-torque / body2.getMomentInertia(), 0)); //y-komposanten används ej
-
-			return derivatives;
+	@Override
+	public void applyForces(World world, double[] state) {
+		super.applyForces(world, state);
+		if (isBroken()) {
+			return;
 		}
 
+		int o1 = World.offset(body1);
+		int o2 = World.offset(body2);
+
+		//beräkna hur stor vinkeln fjädern är stretchad med
+		double angleDisplacement = targetAngle -
+				calcRelativeAngle(state[o1 + World.ROTATION], state[o2 + World.ROTATION]);
+
+		if(Math.abs(angleDisplacement) > getAngularStretchLimit()) {
+			destroy();
+			return;
+		}
+
+		double relativeAngularVelocity = state[o1 + World.ANGULAR_VEL] - state[o2 + World.ANGULAR_VEL];
+		double springTorque = angleDisplacement * getAngularSpringCoefficient();
+		double dampingTorque = -relativeAngularVelocity * getAngularDampingCoefficient();
+		double torque = springTorque + dampingTorque;
+
+		world.applyTorque(body1, torque);
+		world.applyTorque(body2, -torque);
 	}
 }
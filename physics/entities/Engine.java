@@ -1,36 +1,39 @@
 
 package physics.entities;
 
-import java.awt.image.BufferedImage;
+import physics.BitMask;
+import physics.ForceGenerator;
+import physics.PixelMasks;
 import physics.Vector;
+import physics.World;
 
 /**
  *
  * @author Robinerd
  */
-public class Engine extends Part {
+public class Engine extends Part implements ForceGenerator {
 
-	public static Image ENGINE_IMAGE;
+	public static BitMask ENGINE_PIXELS;
 
 	static {
-		ENGINE_IMAGE = Image.loadImageWhiteMask("img/engine.png");
+		ENGINE_PIXELS = PixelMasks.load("img/engine.png");
 	}
 
 	private double engineForce = 8000000;
 	private boolean thrusting = false;
 
 	public Engine(double x, double y) {
-		super(ENGINE_IMAGE.image, 2, new Vector(x, y));
+		super(ENGINE_PIXELS, 2, new Vector(x, y));
 	}
 
-	@Override
-	public void update(double dt) {
-		super.update(dt);
+	public void applyForces(World world, double[] state) {
 		if(thrusting) {
-			Vector engineImpulse = new Vector((double)Math.cos(rotation), -(double)Math.sin(rotation)).multiply(engineForce * dt);
-			applyImpulse(engineImpulse, pos);
+			//motorn drar i sin egen riktning, i tyngdpunkten
+			int o = World.offset(this);
+			double rotation = state[o + World.ROTATION];
+			world.applyForce(this, Math.cos(rotation) * engineForce, -Math.sin(rotation) * engineForce,
+					state[o + World.X], state[o + World.Y]);
 		}
-		
 	}
 
 	public void setThrusting(boolean thrusting) {
@@ -1,11 +1,9 @@
 
 package physics.entities;
 
-import java.awt.Color;
-import java.awt.Graphics2D;
-import java.awt.Point;
-import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import physics.BitMask;
+import physics.ComponentLabeling;
 import physics.Vector;
 import physics.Material;
 
@@ -15,40 +13,31 @@ import physics.Material;
  */
 public class Part extends RigidBody{
 
-	public Part(BufferedImage image, double density, Vector position) {
-		super(image, density, position);
+	public Material material; //null om delen inte är gjord av något ritat material, t.ex. en motor
+
+	public Part(BitMask pixels, double density, Vector position) {
+		super(pixels, density, position);
 	}
 
-	public Part(BufferedImage image, double density) {
-		super(image, density);
+	public Part(BitMask pixels, Material material) {
+		super(pixels, material.density);
+		this.material = material;
 	}
 
 	public Part(Part part) {
 		super(part);
+		material = part.material;
 	}
 
-	public static ArrayList<Part> splitImageIntoParts(BufferedImage pixelData, Material material) {
+	public static ArrayList<Part> splitImageIntoParts(BitMask pixelData, Material material) {
 		ArrayList<Part> returnValue = new ArrayList<Part>();
 
-		ArrayList<boolean[][]> allPartPixels = RigidBody.splitImageIntoRigidBodies(pixelData);
-
-		//för varje boolsk matris, skapa en vinge
-		for (boolean[][] partPixels : allPartPixels) {
-			int width = partPixels.length;
-			int height = partPixels[0].length;
-
-			//rita vingens bild utifrån den boolska matrisen.
-			BufferedImage partImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-
-			for (int i = 0; i < width; i++) {
-				for (int j = 0; j < height; j++) {
-					//rita en pixel för varje true-värde i den boolska matrisen
-					if (partPixels[i][j]) {
-						partImage.setRGB(i, j, material.color.getRGB());
-					}
-				}
-			}
-			Part newPart = new Part(partImage, material.density);
+		ComponentLabeling labeling = RigidBody.splitImageIntoRigidBodies(pixelData);
+
+		//för varje grupp, skapa en del på gruppens plats i bilden
+		for (ComponentLabeling.Component component : labeling.getComponents()) {
+			Part newPart = new Part(component.pixels, material);
+			newPart.pos.add(component.getOffset());
 			returnValue.add(newPart);
 		}
 
@@ -1,20 +1,19 @@
 package physics.entities;
 
-import java.awt.Color;
-import java.awt.Graphics;
 import java.awt.Point;
 import java.util.ArrayList;
-import javax.swing.JPanel;
+import physics.Collision;
+import physics.ComponentLabeling;
+import physics.ForceGenerator;
 import physics.Vector;
+import physics.World;
 
 /**
- * Denna grafiska komponent har sin nollpunkt i värld-koordinaternas nollpunkt,
- * och är så pass stor att hela planet får plats i utritningen.
- * Komponenten har alltid positionen (0,0) och storleken (x+2000, y+2000),
- * där (x,y) är planets position.
+ * Ett plan består av vingar, strukturer och motorer som hålls ihop av joints.
+ * Planet innehåller ingen grafik, det ritas ut av spelet.
  * @author Robinerd
  */
-public class Plane extends JPanel {
+public class Plane {
 
 	public boolean thrusting = false;
 	private int x, y; //planets position bestäms av vingarnas genomsnittliga position.
@@ -23,33 +22,35 @@ public class Plane extends JPanel {
 	private ArrayList<SpringJoint> joints = new ArrayList<SpringJoint>();
 	private ArrayList<Engine> engines = new ArrayList<Engine>();
 	private Wing player;
+	private World world; //skapas vid första update, och på nytt om delar läggs till
+	private RigidBody[] bodies; //alla delar i world, i samma ordning
+	private boolean[][] ignoreCollision; //par av delar som inte ska kollidera med varandra
 
 	public Plane(int startX, int startY) {
-		setOpaque(false);
-
-		setOpaque(true);
-		setBackground(Color.red);
 	}
 
 	public void destroy() {
-		for (Wing wing : wings) {
-			remove(wing);
-		}
 		wings = null;
-
-		for (Structure structure : structures) {
-			remove(structure);
-		}
 		structures = null;
-
-		for (SpringJoint joint : joints) {
-			remove(joint);
-		}
 		joints = null;
+		engines = null;
+		world = null;
+		bodies = null;
+		ignoreCollision = null;
 	}
 
 	public void update(double dt) {
 
+		if (world == null) {
+			world = createWorld();
+		}
+		//spara föregående steg för interpolerad utritning
+		storePreviousState();
+
+		//integrera alla delar och kopplingar tillsammans
+		world.step(dt);
+
+		//hantera kollisioner
 		for (Wing wing : wings) {
 			wing.update(dt); //uppdatera varje vinge
 		}
@@ -59,25 +60,89 @@ public class Plane extends JPanel {
 		for (Engine engine : engines) {
 			engine.update(dt);
 		}
+		if (RigidBody.usePolygonMesh) {
+			handleBodyCollisions();
+		}
 		for (SpringJoint joint : joints) {
 			joint.update(dt);
 		}
 	}
 
-	@Override
-	public void paintComponent(Graphics g) {
+	/**
+	 * Hanterar kollisioner mellan planets delar, med delarnas polygoner.
+	 */
+	private void handleBodyCollisions() {
+		for (int i = 0; i < bodies.length; i++) {
+			for (int j = i + 1; j < bodies.length; j++) {
+				if (!ignoreCollision[i][j]) {
+					bodies[i].handleCollision(Collision.checkCollision(bodies[i], bodies[j]), bodies[j]);
+				}
+			}
+		}
+	}
 
-		for(Structure structure : structures) {
-			structure.paintComponent(g);
+	private void storePreviousState() {
+		for (Wing wing : wings) {
+			wing.storePreviousState();
 		}
-		for(Wing wing : wings) {
-			wing.paintComponent(g);
+		for (Structure structure : structures) {
+			structure.storePreviousState();
 		}
-		for(Engine engine : engines) {
-			engine.paintComponent(g);
+		for (Engine engine : engines) {
+			engine.storePreviousState();
 		}
-		for(SpringJoint joint : joints) {
-			joint.paintComponent(g);
+		for (SpringJoint joint : joints) {
+			joint.storePreviousState();
+		}
+	}
+
+	private World createWorld() {
+		ArrayList<RigidBody> bodies = new ArrayList<RigidBody>();
+		bodies.addAll(wings);
+		bodies.addAll(structures);
+		bodies.addAll(engines);
+
+		ArrayList<ForceGenerator> forceGenerators = new ArrayList<ForceGenerator>();
+		forceGenerators.addAll(joints);
+		forceGenerators.addAll(engines);
+
+		World newWorld = new World(bodies, forceGenerators);
+		updateIgnoredCollisions(bodies);
+		return newWorld;
+	}
+
+	/**
+	 * Bestämmer vilka par av delar som inte ska kollidera med varandra:
+	 * delar som sitter ihop med en joint, och delar som redan överlappar
+	 * när planet sätts ihop, t.ex. en motor som sitter på en vinge.
+	 * Anropas när world skapas, efter att World har satt kropparnas index.
+	 */
+	private void updateIgnoredCollisions(ArrayList<RigidBody> allBodies) {
+		ArrayList<RigidBody> nonEmpty = new ArrayList<RigidBody>();
+		for (RigidBody body : allBodies) {
+			if (!body.isEmpty()) {
+				nonEmpty.add(body);
+			}
+		}
+		bodies = nonEmpty.toArray(new RigidBody[nonEmpty.size()]);
+		ignoreCollision = new boolean[bodies.length][bodies.length];
+		if (!RigidBody.usePolygonMesh) {
+			return;
+		}
+
+		for (SpringJoint joint : joints) {
+			if (joint.body1 != null && joint.body2 != null) {
+				ignoreCollision[joint.body1.worldIndex][joint.body2.worldIndex] = true;
+				ignoreCollision[joint.body2.worldIndex][joint.body1.worldIndex] = true;
+			}
+		}
+		for (int i = 0; i < bodies.length; i++) {
+			for (int j = i + 1; j < bodies.length; j++) {
+				if (bodies[i].overlapsNoRot(bodies[j])) {
+					ignoreCollision[i][j] = true;
+					ignoreCollision[j][i] = true;
+				}
+			}
 		}
 	}
 
@@ -87,46 +152,73 @@ public class Plane extends JPanel {
 			ArrayList<Point> enginePositions,
 			ArrayList<Point> jointPositions)
 	{
+		return assemblePlane(allWings, allStructures, null, null, enginePositions, jointPositions);
+	}
 
-		Plane plane = new Plane(0, 0);
-
-		plane.player = allWings.get(0);
+	/**
+	 * Sätter ihop ett plan av vingar och strukturer, och fäster motorer och joints
+	 * i de delar som ligger under dem.
+	 * Med uppdelningarna som delarna skapades från slås delarna under en punkt upp
+	 * direkt i gruppernas nummer, i stället för att fråga varje del.
+	 * @param allWings vingarna, i samma ordning som grupperna i wingLabels
+	 * @param allStructures strukturerna, i samma ordning som grupperna i structureLabels
+	 * @param wingLabels uppdelningen som vingarna skapades från, eller null
+	 * @param structureLabels uppdelningen som strukturerna skapades från, eller null
+	 */
+	public static Plane assemblePlane(
+			ArrayList<Wing> allWings,
+			ArrayList<Structure> allStructures,
+			ComponentLabeling wingLabels,
+			ComponentLabeling structureLabels,
+			ArrayList<Point> enginePositions,
+			ArrayList<Point> jointPositions)
+	{
 
-		//materialParts innehåller delar som motorer och hjul kan fästas på (vingar och strukturer)
-		ArrayList<Part> materialParts = new ArrayList<Part>();
+		Plane plane = new Plane(0, 0);
 
+		//lager med delar som motorer och joints kan fästas på (vingar och strukturer), i den ordning de
+		//söks igenom. För varje lager en del per grupp i uppdelningen, null för delar som filtrerats bort
+		PartLayer[] layers = {
+			new PartLayer(wingLabels, allWings.size()),
+			new PartLayer(structureLabels, allStructures.size())
+		};
 
 		//lägg till vingar -----------------------------------------------------
 
-		for (Wing wing : allWings) {
+		for (int i = 0; i < allWings.size(); i++) {
+			Wing wing = allWings.get(i);
 			if (wing.getMass() / wing.density > 50) { //filtrera bort pyttesmå objekt
 				plane.addWing(wing);
-				materialParts.add(wing);
+				layers[0].parts[i] = wing;
 			}
 		}
 
 		//lägg till strukturer -------------------------------------------------
 
-		for (Structure structure : allStructures) {
+		for (int i = 0; i < allStructures.size(); i++) {
+			Structure structure = allStructures.get(i);
 			if (structure.getMass() / structure.density > 50) { //filtrera bort pyttesmå objekt
 				plane.addStructure(structure);
-				materialParts.add(structure);
+				layers[1].parts[i] = structure;
 			}
 		}
 
+		if (!plane.wings.isEmpty()) {
+			plane.player = plane.wings.get(0);
+		}
+
 		//skapa och lägg till motorer ------------------------------------------
 
 		for (Point enginePosition : enginePositions) {
 			Engine newEngine = new Engine(enginePosition.x, enginePosition.y);
 			plane.addEngine(newEngine);
 			//skapa joint för att hålla fast motorn
-			for (Part part : materialParts) {
-				if (part.containsPointNoRot(enginePosition)) {
-					SpringJoint newJoint = new AngularSpringJoint();
-					newJoint.attach(newEngine, part, new Vector(enginePosition));
-					plane.addJoint(newJoint);
-					break; //skapa endast EN joint för motorn - den sätts fast i första bästa vinge eller struktur
-				}
+			//skapa endast EN joint för motorn - den sätts fast i första bästa vinge eller struktur
+			ArrayList<Part> parts = partsAt(enginePosition, layers);
+			if (!parts.isEmpty()) {
+				SpringJoint newJoint = new AngularSpringJoint();
+				newJoint.attach(newEngine, parts.get(0), new Vector(enginePosition));
+				plane.addJoint(newJoint);
 			}
 		}
 
@@ -136,24 +228,58 @@ public class Plane extends JPanel {
 		//om jointpunkten sitter ihop med två eller fler vingar/strukturer, skapas en eller flera joints, i en kedja mellan objekten
 		for (Point jointPosition : jointPositions) {
 			Part previousPart = null;
-			for (Part part : materialParts) {
-				if (part.containsPointNoRot(jointPosition)) {
-					if (previousPart == null) {
-						previousPart = part;
-					} else {
-						//jointen får endast sitta mellan material-delar dvs vingar och strukturer
-						SpringJoint newJoint = new LooseSpringJoint();
-						newJoint.attach(previousPart, part, new Vector(jointPosition));
-						plane.addJoint(newJoint);
-						previousPart = part;
-					}
+			for (Part part : partsAt(jointPosition, layers)) {
+				if (previousPart != null) {
+					//jointen får endast sitta mellan material-delar dvs vingar och strukturer
+					SpringJoint newJoint = new LooseSpringJoint();
+					newJoint.attach(previousPart, part, new Vector(jointPosition));
+					plane.addJoint(newJoint);
 				}
+				previousPart = part;
 			}
 		}
 
 		return plane;
 	}
 
+	/**
+	 * Delarna i ett material, ordnade efter gruppernas nummer i uppdelningen.
+	 */
+	private static class PartLayer {
+
+		final ComponentLabeling labels; //null om delarna inte har någon uppdelning
+		final Part[] parts;
+
+		PartLayer(ComponentLabeling labels, int partCount) {
+			this.labels = labels;
+			parts = new Part[partCount];
+		}
+	}
+
+	/**
+	 * @return alla delar som har en fylld pixel under punkten, lager för lager och
+	 * inom varje lager i samma ordning som delarna lades till
+	 */
+	private static ArrayList<Part> partsAt(Point point, PartLayer[] layers) {
+		ArrayList<Part> found = new ArrayList<Part>();
+		for (PartLayer layer : layers) {
+			if (layer.labels != null) {
+				//grupperna i ett material överlappar aldrig, så högst en del per lager
+				int label = layer.labels.getLabel(point.x, point.y);
+				if (label >= 0 && label < layer.parts.length && layer.parts[label] != null) {
+					found.add(layer.parts[label]);
+				}
+			} else {
+				for (Part part : layer.parts) {
+					if (part != null && part.containsPointNoRot(point)) {
+						found.add(part);
+					}
+				}
+			}
+		}
+		return found;
+	}
+
 
 	public void setThrusting(boolean thrusting) {
 		this.thrusting = thrusting;
@@ -164,21 +290,25 @@ public class Plane extends JPanel {
 
 	public void addWing(Wing newWing) {
 		wings.add(newWing);
+		world = null;
 		//add(newWing, -1);
 	}
 
 	public void addJoint(SpringJoint newJoint) {
 		joints.add(newJoint);
+		world = null;
 		//add(newJoint, 0);
 	}
 
 	public void addEngine(Engine newEngine) {
 		engines.add(newEngine);
+		world = null;
 		//add(newEngine, 0);
 	}
 
 	public void addStructure(Structure newStructure) {
 		structures.add(newStructure);
+		world = null;
 		//add(newStructure, -1);
 	}
 
@@ -193,6 +323,27 @@ public class Plane extends JPanel {
 		for(Engine engine : engines) {
 			engine.pos.add(deltaLocation);
 		}
+		for(SpringJoint joint : joints) {
+			joint.update(0);
+		}
+		//planet har flyttats, inte rört sig. Interpolera inte från den gamla platsen
+		storePreviousState();
+	}
+
+	public ArrayList<Wing> getWings() {
+		return wings;
+	}
+
+	public ArrayList<Structure> getStructures() {
+		return structures;
+	}
+
+	public ArrayList<Engine> getEngines() {
+		return engines;
+	}
+
+	public ArrayList<SpringJoint> getJoints() {
+		return joints;
 	}
 
 	public Vector getPlayerLocation() {
@@ -3,98 +3,121 @@
  */
 package physics.entities;
 
-import java.awt.*;
-import java.awt.geom.AffineTransform;
-import java.awt.image.BufferedImage;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Stack;
-import javax.swing.JPanel;
+import java.awt.Point;
+import java.awt.Rectangle;
+import physics.BitMask;
+import physics.CollisionMesh;
+import physics.ComponentLabeling;
+import physics.DistanceField;
+import physics.MassProperties;
+import physics.ShapeDescriptor;
 import physics.Vector;
 import physics.Collision;
-import physics.GravityInterpolatorRK4;
 
 /**
- * Ett RigidBody-objekt är en grafisk representation av ett fysiskt objekt
+ * Ett RigidBody-objekt representerar ett fysiskt objekt
  * i två dimensioner. Objektet implementerar "rigid body"-fysik
  * för gravitation och kollisioner, för att efterlikna de fysikaliska egenskaper
  * hos ett objekt som ej kan deformeras. 
  * <br/><br/>
- * Objektet skapas utifrån en BufferedImage (bild) som skickas till konstruktorn.
- * Objektet utformas av alla icke-transparenta pixlar i denna bild.
- * Objektets bredd och höjd (w,h) sätts till bildens dimensioner. Formen lagras
- * sedan i en boolean[w][h] för att underlätta och snabba upp läsning av pixeldata.
+ * Objektet skapas utifrån pixeldata, en BitMask med en bit för varje fylld pixel,
+ * som skickas till konstruktorn. Objektets bredd och höjd (w,h) sätts till maskens dimensioner.
+ * Pixeldata kan skapas från en bild med PixelMasks.
  * <br/><br/>
- * För att använda en RigidBody i en fysiksimulation, skapa en instans av RigidBody,
- * lägg till den till någon grafisk container, t.ex. en JFrame eller JPanel.
+ * För att använda en RigidBody i en fysiksimulation, skapa en instans av RigidBody
+ * och lägg till den i en World som integrerar rörelsen.
  * Se till att fysikobjektets update anropas varje simulations-steg.
- * Fysik-objektet kommer automatiskt ritas ut varje gång förälder-containern
- * ritas ut.
+ * Objektet innehåller ingen grafik, utritningen sköts av spelet utifrån pixeldatan.
  * <br/><br/>
  * I den nuvarande implementationen av RigidBody kolliderar objekt
- * automatiskt med förälder-containerns kanter. Två rigid bodies
- * kolliderar inte med varandra, eftersom klassen än så länge bara har stöd
- * för kollision mellan en RigidBody och rektanglar.
+ * automatiskt med marken. Två rigid bodies kolliderar endast med varandra
+ * om usePolygonMesh är satt, då kollisionerna beräknas med polygoner istället för pixlar.
+ * Kollisionerna mellan kropparna hanteras av den som äger dem, t.ex. Plane.
+ * <br/><br/>
+ * Med usePolygonMesh görs kroppens pixeldata om till en CollisionMesh, och massa,
+ * tyngdpunkt och tröghetsmoment räknas ut från polygonerna istället för pixel för pixel.
+ * Kroppar som är för tunna för att bli polygoner, se CollisionMesh.fromPixels, får ingen
+ * CollisionMesh och kolliderar med sina pixlar som vanligt, även med andra kroppar.
  *
  * @author Robin Lindh Nilsson
  */
-public class RigidBody extends JPanel {
+public class RigidBody {
 
 	public static final double START_VEL_X = 0;
 	public static final double START_VEL_Y = 0;
 	public static int groundLevel = 500; //initieras av GamePanel
+	/** beräkna form och kollisioner med polygoner, se CollisionMesh. Gäller kroppar som skapas därefter */
+	public static boolean usePolygonMesh = false;
 
 	public double density; //mass per pixel
 	public Vector pos;
 	public double rotation = 0;
 	public double angularVel = 0;
 	public Vector vel;
+	public Vector previousPos; //position före senaste steget, för interpolerad utritning
+	public double previousRotation;
 	public double collisionRadius; // Radie för kollisions-cirkeln som används för första kollisionskontroll
 	public double damping = 0.5f; // Cofficient of Restitution
 	public double gravity = 400;
 	public double friction = 0.01f;
 	private boolean isEmpty = true; //anger huruvida objektet innehåller några pixlar
-	private boolean pixels[][]; //array with pixel data, true means there is a pixel at the coordinate
-	private BufferedImage image; //en 'bild' som innehåller objektets form.
+	private BitMask pixels; //pixel data, a set bit means there is a pixel at the coordinate
 	private int w, h; //dimensions
 	private Vector centerGravityLocal; //Center of Gravity
+	private ShapeDescriptor shape; //delad form med avståndsfält och kant
+	private MassProperties massProperties; //pixlarnas råa moment
+	private CollisionMesh collisionMesh; //null om usePolygonMesh inte var satt när formen beräknades
 	private double mass;
 	private double momentInertia; //moment of inertia
-	private GravityInterpolatorRK4 interpolator;
-
-	//används endast lokalt av splitImageIntoRigidBodies
-	private static boolean[][] traversed;
-	private static boolean[][] isTransparent;
-	private static boolean[][] opaqueGroup;
+	public int worldIndex = -1; //kroppens index i den World som integrerar den, sätts av World
 
-	public RigidBody(BufferedImage image, double density, Vector position) {
-		this(image, density);
+	public RigidBody(BitMask pixels, double density, Vector position) {
+		this(pixels, density);
 		pos = position;
 	}
 
-	public RigidBody(BufferedImage image, double density) {
-		this.image = image;
+	/**
+	 * @param pixels pixeldata. Objektet använder en delad kopia, så masken kan ändras efteråt.
+	 * @param density massa per pixel
+	 */
+	public RigidBody(BitMask pixels, double density) {
+		this.pixels = pixels;
 		this.density = density;
 		updateShape();
-		updateMass();
-		updateMomentOfInertia();
 		pos = new Vector(centerGravityLocal);
 		vel = new Vector(START_VEL_X, START_VEL_Y);
-		interpolator = new GravityInterpolatorRK4(this);
-
-		setOpaque(false); // sätt panelen genomskinlig
-		setOpaque(true);
-		setBackground(Color.blue);
 	}
 
+	/**
+	 * Skapar en kopia av ett objekt på samma plats. Formen räknas inte ut på nytt,
+	 * utan kopian delar ShapeDescriptor med originalet.
+	 * Har objektet en CollisionMesh räknas den ut på nytt, polygonerna har egna
+	 * buffertar för världskoordinater.
+	 */
 	public RigidBody(RigidBody clone) {
-		this(clone.image, clone.density, clone.pos);
+		pixels = clone.pixels;
+		density = clone.density;
+		if (clone.collisionMesh != null) {
+			updateShape();
+		} else {
+			shape = clone.shape;
+			massProperties = clone.massProperties;
+			w = clone.w;
+			h = clone.h;
+			isEmpty = clone.isEmpty;
+			centerGravityLocal = clone.centerGravityLocal == null ? null : new Vector(clone.centerGravityLocal);
+			mass = clone.mass;
+			momentInertia = clone.momentInertia;
+			collisionRadius = clone.collisionRadius;
+		}
+		pos = new Vector(clone.pos);
+		vel = new Vector(START_VEL_X, START_VEL_Y);
 	}
 
 	/**
-	 * Uppdaterar objektet motsvarande den förflutna tiden dt.
-	 * Anropas varje frame i fysiksimulationen,
-	 * eller så ofta som möjligt för en precis interpolation.
+	 * Uppdaterar objektet efter att den World det tillhör har flyttat fram det tiden dt.
+	 * Rörelsen integreras av World, här hanteras endast kollisioner.
+	 * Anropas varje frame i fysiksimulationen.
 	 * @param dt förfluten tid sedan senaste anropet, i sekunder.
 	 */
 	public void update(double dt) {
@@ -102,8 +125,6 @@ public class RigidBody extends JPanel {
 			return;
 		}
 
-		interpolator.update(dt);
-		//rotation += angularVel * dt;
 		if(rotation > Math.PI + 0.000001)
 			rotation -= 2*Math.PI;
 		if(rotation < -Math.PI - 0.000001)
@@ -112,54 +133,36 @@ public class RigidBody extends JPanel {
 		handleCollisions();
 	}
 
-	@Override
-	public void paintComponent(Graphics g) {
-		paintAtCoordinate(g, new Point((int)pos.x, (int)pos.y));
-	}
-
-	public void paintAtCoordinate(Graphics g, Point coord) {
-
-		
-		if (isEmpty) {
-			return;
+	/**
+	 * Sparar nuvarande position och rotation, så att objektet kan ritas ut
+	 * interpolerat mellan detta och nästa steg. Anropas innan varje steg.
+	 */
+	public void storePreviousState() {
+		if (previousPos == null) {
+			previousPos = new Vector(pos);
+		} else {
+			previousPos.x = pos.x;
+			previousPos.y = pos.y;
 		}
-		Graphics2D g2d = (Graphics2D) g;
-		AffineTransform original = g2d.getTransform();
-		//transformera till rätt koordinatsystem
-		g2d.translate(coord.x, coord.y);
-		g2d.rotate(-rotation, 0, 0);
-		g2d.drawImage(image, (int) -centerGravityLocal.x, (int) -centerGravityLocal.y, this);
-		g2d.setColor(Color.green);
-		g2d.fillOval(-2, -2, 4, 4);
-		g2d.setTransform(original);
+		previousRotation = rotation;
 	}
 
 	/**
-	 * Beräknar och uppdaterar objektets höjd och bredd, och skapar en matris
-	 * med pixeldata för objektet, utifrån nuvarande BufferedImage-objekt.
+	 * Beräknar och uppdaterar objektets höjd och bredd, massa, tröghetsmoment
+	 * och kollisionsdata, utifrån nuvarande pixeldata.
+	 * Formen hämtas med ShapeDescriptor.of, och räknas bara ut om ingen form
+	 * med samma pixeldata redan finns. Med usePolygonMesh skapas även en CollisionMesh,
+	 * om pixeldatan går att göra om till polygoner.
 	 */
 	public final void updateShape() {
-		w = image.getWidth();
-		h = image.getHeight();
-
-		pixels = new boolean[w][h];
-
-		int n = 0;
-		for (int i = 0; i < w; i++) {
-			for (int j = 0; j < h; j++) {
-				int rgb = image.getRGB(i, j);
-				if (rgb == 0) { //om vit
-					//transparent
-					pixels[i][j] = false;
-				} else {
-					//non-transparent
-					pixels[i][j] = true;
-					n++;
-				}
-			}
-		}
+		shape = ShapeDescriptor.of(pixels);
+		pixels = shape.getPixels();
+		massProperties = shape.getMassProperties();
 
-		isEmpty = n == 0;
+		w = pixels.getWidth();
+		h = pixels.getHeight();
+		isEmpty = shape.isEmpty();
+		collisionMesh = usePolygonMesh && !isEmpty ? CollisionMesh.fromPixels(pixels) : null;
 
 		updateMass();
 		updateMomentOfInertia();
@@ -167,31 +170,20 @@ public class RigidBody extends JPanel {
 
 	/**
 	 * Beräknar och uppdaterar objektets massa och tyngdpunkt,
-	 * baserat på nuvarande pixeldata och densitet.
+	 * baserat på pixlarnas moment och densitet.
 	 * Om objektet inte innehåller några fyllda pixlar sätts
 	 * massan till noll, och tyngdpunkten till null.
+	 * Har objektet en CollisionMesh används dess yta och tyngdpunkt.
 	 */
 	public final void updateMass() {
-		centerGravityLocal = new Vector();
-
-		int n = 0;
-
-		for (int i = 0; i < w; i++) {
-			for (int j = 0; j < h; j++) {
-				if (pixels[i][j]) {
-					n++;
-					centerGravityLocal.add(i, j);
-				}
-			}
+		if (collisionMesh != null) {
+			centerGravityLocal = collisionMesh.getCentroid();
+			mass = collisionMesh.getArea() * density;
+			return;
 		}
 
-		if (n == 0) {
-			centerGravityLocal = null;
-			mass = 0;
-		} else {
-			centerGravityLocal.divide(n);
-			mass = n * density;
-		}
+		centerGravityLocal = massProperties.getCentroid();
+		mass = massProperties.getCount() * density;
 	}
 
 	/**
@@ -200,32 +192,17 @@ public class RigidBody extends JPanel {
 	 * Beräknar också radien för kollisionscirkeln i samma metod, av effektivitetsskäl.
 	 * Om objektet inte innehåller några fyllda pixlar sätts kollisionsradien
 	 * och moment of inertia till 0.
+	 * Har objektet en CollisionMesh räknas båda ut från polygonerna.
 	 */
 	public final void updateMomentOfInertia() {
-		double sum = 0;
-		int n = 0;
-		collisionRadius = 0;
-
-		for (int i = 0; i < w; i++) {
-			for (int j = 0; j < h; j++) {
-				if (pixels[i][j]) {
-					n++;
-					Vector delta = Vector.difference(centerGravityLocal, new Vector(i, j));
-					double distance = delta.length();
-					sum += distance * distance;
-					if (distance > collisionRadius) {
-						collisionRadius = distance;
-					}
-				}
-			}
+		if (collisionMesh != null) {
+			momentInertia = collisionMesh.getPolarMoment() * density;
+			collisionRadius = collisionMesh.getRadius();
+			return;
 		}
 
-		if (n == 0) {
-			momentInertia = 0;
-			collisionRadius = 0;
-		} else {
-			momentInertia = sum / n * mass;
-		}
+		momentInertia = massProperties.getSecondMoment() * density;
+		collisionRadius = massProperties.getRadius();
 	}
 
 	/**
@@ -327,113 +304,48 @@ public class RigidBody extends JPanel {
 	}
 
 
-
-	/** Delar upp bilddatan i flera RigidBody-objekt, genom att gruppera alla icke-transparenta pixlar
-	 * avgränsade av transparenta pixlar. Varje separat sammanhängande grupp av
-	 * icketransparenta pixlar blir ett nytt RigidBody-objekt.
-	 * @param imageData en BufferedImage med pixeldata. Alla icketransparenta pixlar representerar materia.
-	 * @return En ArrayList med alla nya RigidBody-objekt.
-	 * Varje objekt representeras av en boolsk matris med true för fyllda pixlar.
+	/**
+	 * Hanterar en kollision mellan detta objekt och ett annat.
+	 * Kropparna flyttas isär i förhållande till sina massor, och får
+	 * lika stora men motriktade impulser i kollisionspunkten.
+	 * Om null skickas in sker ingen kollision.
+	 * @param col Kollisionsdata, med normalen riktad från other mot detta objekt
+	 * @param other Den andra kroppen
 	 */
-	public static ArrayList<boolean[][]> splitImageIntoRigidBodies(BufferedImage imageData) {
-		int width = imageData.getWidth();
-		int height = imageData.getHeight();
-		traversed = new boolean[width][height];
-		isTransparent = new boolean[width][height];
-
-		ArrayList<boolean[][]> returnValue = new ArrayList<boolean[][]>();
-
-		//läs över bilddatan i en boolsk matris för effektivare läsning
-		//fyll traversed med false i samma loop pga effektivitet
-		for (int i = 0; i < width; i++) {
-			for (int j = 0; j < height; j++) {
-				isTransparent[i][j] = imageData.getRGB(i, j) == -1;
-				traversed[i][j] = false;
-			}
-		}
-
-		int wingCounter = 0;
-		//leta efter fyllda pixlar
-		for (int i = 0; i < width; i++) {
-			for (int j = 0; j < height; j++) {
-				if (traversed[i][j]) {
-					continue;
-				}
-				if (isTransparent[i][j]) {
-					traversed[i][j] = true;
-				} else {
-					//när en fylld pixel påträffas scannas bilden
-					//rekursivt efter intilliggande fyllda pixlar
-					opaqueGroup = new boolean[width][height];
-					findOpaqueGroup(i, j);
-
-					//loopa igenom punkterna en första gång
-					//för att hitta hur stor matrisen behöver vara
-					int maxX = Integer.MIN_VALUE;
-					int maxY = Integer.MIN_VALUE;
-					for (int x = 0; x < width; x++) {
-						for (int y = 0; y < height; y++) {
-							if (opaqueGroup[x][y]) {
-								if (x > maxX) {
-									maxX = x;
-								}
-								if (y > maxY) {
-									maxY = y;
-								}
-							}
-						}
-					}
-					//pixeldatan lagrar true för alla fyllda pixlar, false för genomskinliga
-					boolean[][] pixelData = new boolean[maxX + 1][maxY + 1];
-					for (boolean[] column : pixelData) {
-						Arrays.fill(column, false);
-					}
-
-					//loopa igenom punkterna en andra gång och lägg till dem i matrisen
-					for (int x = 0; x < width; x++) {
-						for (int y = 0; y < height; y++) {
-							if (opaqueGroup[x][y]) {
-								pixelData[x][y] = true;
-							}
-						}
-					}
-					returnValue.add(pixelData);
-				}
-			}
+	public void handleCollision(Collision col, RigidBody other) {
+		if (isEmpty || other.isEmpty || col == null) {
+			return;
 		}
 
-		return returnValue;
-	}
-
-	private static void findOpaqueGroup(int x, int y) {
+		Vector r = new Vector(col.point).subtract(pos);
+		Vector otherR = new Vector(col.point).subtract(other.pos);
+		Vector relativeVel = getPointVelocity(col.point).subtract(other.getPointVelocity(col.point));
 
-		Stack<Point> checkPoints = new Stack<Point>();
-		checkPoints.add(new Point(x,y));
+		//flytta ut objekten från varandra, den lättare kroppen flyttas mest
+		double totalMass = mass + other.mass;
+		pos.add(new Vector(col.normal).multiply(col.overlap * other.mass / totalMass));
+		other.pos.subtract(new Vector(col.normal).multiply(col.overlap * mass / totalMass));
 
-		while(!checkPoints.empty()) {
-			Point point = checkPoints.pop();
-			x = point.x;
-			y = point.y;
+		double tmp = Vector.cross(r, col.normal);
+		double otherTmp = Vector.cross(otherR, col.normal);
+		double restitution = Math.min(damping, other.damping);
+		double impulseAbs = -(1 + restitution) * Vector.dot(relativeVel, col.normal)
+				/ (1 / mass + 1 / other.mass + tmp * tmp / momentInertia + otherTmp * otherTmp / other.momentInertia);
 
-			//skydda mot array index out of bounds
-			if (x < 0 || y < 0 || x >= traversed.length || y >= traversed[0].length) {
-				continue;
-			}
-
-			if (traversed[x][y]) {
-				continue;
-			}
-
-			traversed[x][y] = true;
+		applyImpulse(new Vector(col.normal).multiply(impulseAbs), col.point);
+		other.applyImpulse(new Vector(col.normal).multiply(-impulseAbs), col.point);
+	}
 
-			if (!isTransparent[x][y]) {
-				opaqueGroup[x][y] = true;
-				checkPoints.add(new Point(x + 1, y));
-				checkPoints.add(new Point(x - 1, y));
-				checkPoints.add(new Point(x, y + 1));
-				checkPoints.add(new Point(x, y - 1));
-			}
-		}
+	/** Delar upp pixeldatan i flera RigidBody-objekt, genom att gruppera alla fyllda pixlar
+	 * avgränsade av tomma pixlar. Varje separat sammanhängande grupp av
+	 * fyllda pixlar blir ett nytt RigidBody-objekt.
+	 * @param imageData pixeldata. Alla fyllda pixlar representerar materia.
+	 * @return uppdelningen, med alla grupper i den ordning de påträffas
+	 * kolumn för kolumn från vänster. Varje grupp har en egen beskuren BitMask,
+	 * och sin position i imageData.
+	 */
+	public static ComponentLabeling splitImageIntoRigidBodies(BitMask imageData) {
+		return new ComponentLabeling(imageData, true);
 	}
 
 	/**
@@ -460,21 +372,89 @@ public class RigidBody extends JPanel {
 	 */
 	public boolean containsPointNoRot(Point globalPoint) {
 
-		boolean returnVal;
-		try {
-			int x = (int) (pos.x - centerGravityLocal.x + globalPoint.x);
-			int y = (int) (pos.y - centerGravityLocal.y + globalPoint.y);
-			returnVal = pixels[x][y];
-		} catch(ArrayIndexOutOfBoundsException ex) {
-			returnVal = false;
+		//pixel (0, 0) ligger i pos - tyngdpunkt, punkter utanför masken räknas som tomma
+		int x = globalPoint.x - (int) Math.round(pos.x - centerGravityLocal.x);
+		int y = globalPoint.y - (int) Math.round(pos.y - centerGravityLocal.y);
+		return pixels.get(x, y);
+	}
+
+	/**
+	 * Kontrollerar om detta objekt och ett annat har någon fylld pixel på samma plats,
+	 * 64 pixlar åt gången. Tar inte hänsyn till rotation, och används därför
+	 * när objekten skapas.
+	 * @param other det andra objektet
+	 * @return true om objekten överlappar
+	 */
+	public boolean overlapsNoRot(RigidBody other) {
+		if (isEmpty || other.isEmpty) {
+			return false;
 		}
-		return returnVal;
+		//pixel (0, 0) ligger i pos - tyngdpunkt
+		int dx = (int) Math.round((other.pos.x - other.centerGravityLocal.x) - (pos.x - centerGravityLocal.x));
+		int dy = (int) Math.round((other.pos.y - other.centerGravityLocal.y) - (pos.y - centerGravityLocal.y));
+		return pixels.intersects(other.pixels, dx, dy);
 	}
 
 	public boolean isEmpty() {
 		return isEmpty;
 	}
 
+	/**
+	 * @return pixeldata. Får inte ändras.
+	 */
+	public BitMask getPixels() {
+		return pixels;
+	}
+
+	/**
+	 * @return objektets form, som kan delas med andra objekt
+	 */
+	public ShapeDescriptor getShape() {
+		return shape;
+	}
+
+	/**
+	 * @return avståndsfältet för objektets pixeldata, eller null om objektet är tomt
+	 */
+	public DistanceField getDistanceField() {
+		return shape.getDistanceField();
+	}
+
+	/**
+	 * @return x-koordinaterna för punkterna på kroppens kant relativt pixlarnas tyngdpunkt,
+	 * utan hänsyn till rotation. Får inte ändras.
+	 */
+	public double[] getContourX() {
+		return shape.getContourX();
+	}
+
+	/**
+	 * @return y-koordinaterna för punkterna på kroppens kant relativt pixlarnas tyngdpunkt,
+	 * utan hänsyn till rotation. Får inte ändras.
+	 */
+	public double[] getContourY() {
+		return shape.getContourY();
+	}
+
+	public int getContourLength() {
+		return shape.getContourLength();
+	}
+
+	/**
+	 * @return polygonmodellen av objektet, eller null om usePolygonMesh
+	 * inte var satt när formen beräknades eller om objektet är för tunt för polygoner
+	 */
+	public CollisionMesh getCollisionMesh() {
+		return collisionMesh;
+	}
+
+	/**
+	 * @return tyngdpunkten i pixeldatans koordinatsystem, eller null om objektet är tomt
+	 */
+	public Vector getCenterGravityLocal() {
+		return centerGravityLocal;
+	}
+
 	public double getMass() {
 		return mass;
 	}
@@ -0,0 +1,97 @@
+package physics;
+
+import java.awt.Rectangle;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import physics.entities.RigidBody;
+
+/**
+ * Kroppar som är för tunna eller små för att bli polygoner ska kollidera med
+ * sina pixlar i stället, även när usePolygonMesh är satt.
+ *
+ * @author Robin Lindh Nilsson
+ */
+public class CollisionMeshTest {
+
+	@After
+	public void resetPolygonMesh() {
+		RigidBody.usePolygonMesh = false;
+	}
+
+	/**
+	 * @return en vågrät linje, en pixel tjock
+	 */
+	private static BitMask line(int length) {
+		BitMask pixels = new BitMask(length, 1);
+		for (int x = 0; x < length; x++) {
+			pixels.set(x, 0);
+		}
+		return pixels;
+	}
+
+	/**
+	 * @return några få sammanhängande pixlar
+	 */
+	private static BitMask blob() {
+		BitMask pixels = new BitMask(2, 2);
+		pixels.set(0, 0);
+		pixels.set(1, 0);
+		pixels.set(0, 1);
+		return pixels;
+	}
+
+	private static BitMask square(int size) {
+		BitMask pixels = new BitMask(size, size);
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				pixels.set(x, y);
+			}
+		}
+		return pixels;
+	}
+
+	@Test
+	public void meshIsNullOrHasPieces() {
+		for (BitMask pixels : new BitMask[] {line(40), blob(), square(1)}) {
+			CollisionMesh mesh = CollisionMesh.fromPixels(pixels);
+			assertTrue(mesh == null || !mesh.getPieces().isEmpty());
+		}
+		assertNull(CollisionMesh.fromPixels(line(40)));
+	}
+
+	@Test
+	public void thinLineCollidesWithBody() {
+		RigidBody.usePolygonMesh = true;
+		RigidBody line = new RigidBody(line(40), 1, new Vector(100, 100));
+		RigidBody box = new RigidBody(square(20), 1, new Vector(100, 108));
+		assertNull(line.getCollisionMesh());
+		assertNotNull(box.getCollisionMesh());
+
+		Collision col = Collision.findOverlap(line, box);
+		assertNotNull(col);
+		assertTrue(col.normal.y < 0); //linjen ligger i lådans överkant och ska ut uppåt
+		assertNotNull(Collision.findOverlap(box, line));
+
+		//långt ifrån varandra
+		box.pos = new Vector(300, 300);
+		assertNull(Collision.findOverlap(line, box));
+	}
+
+	@Test
+	public void tinyBlobCollidesWithBody() {
+		RigidBody.usePolygonMesh = true;
+		RigidBody blob = new RigidBody(blob(), 1, new Vector(100, 100));
+		RigidBody box = new RigidBody(square(20), 1, new Vector(100, 108));
+		assertNotNull(Collision.findOverlap(blob, box));
+		assertNotNull(Collision.findOverlap(box, blob));
+	}
+
+	@Test
+	public void thinLineCollidesWithGround() {
+		RigidBody.usePolygonMesh = true;
+		RigidBody line = new RigidBody(line(40), 1, new Vector(100, 100));
+		line.vel = new Vector(0, 10);
+		assertNotNull(Collision.checkCollision(line, new Rectangle(0, 100, 1000, 50)));
+	}
+}
@@ -0,0 +1,58 @@
+package physics;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Moment som har uppdaterats pixel för pixel ska bli samma som om de räknas ut
+ * från den slutliga masken.
+ *
+ * @author Robin Lindh Nilsson
+ */
+public class MassPropertiesTest {
+
+	private static final double EPSILON = 1e-6;
+
+	@Test
+	public void incrementalMatchesFullRecompute() {
+		Random random = new Random(7);
+		BitMask pixels = new BitMask(60, 40);
+		MassProperties incremental = new MassProperties(pixels);
+		for (int i = 0; i < 5000; i++) {
+			int x = random.nextInt(pixels.getWidth());
+			int y = random.nextInt(pixels.getHeight());
+			boolean filled = random.nextInt(3) != 0;
+			if (pixels.get(x, y) == filled) {
+				continue;
+			}
+			pixels.set(x, y, filled);
+			if (filled) {
+				incremental.add(x, y);
+			} else {
+				incremental.remove(x, y);
+			}
+		}
+
+		MassProperties full = new MassProperties(pixels);
+		assertTrue(full.getCount() > 0);
+		assertEquals(full.getCount(), incremental.getCount());
+		assertEquals(full.getCentroid().x, incremental.getCentroid().x, EPSILON);
+		assertEquals(full.getCentroid().y, incremental.getCentroid().y, EPSILON);
+		assertEquals(full.getSecondMoment(), incremental.getSecondMoment(), EPSILON);
+		//rektangeln krymper inte när pixlar tas bort
+		assertTrue(incremental.getRadius() >= full.getRadius() - EPSILON);
+	}
+
+	@Test
+	public void removingEverythingLeavesEmpty() {
+		MassProperties properties = new MassProperties();
+		properties.add(3, 4);
+		properties.add(10, 2);
+		properties.remove(3, 4);
+		properties.remove(10, 2);
+		assertEquals(0, properties.getCount());
+		assertNull(properties.getCentroid());
+		assertEquals(0, properties.getSecondMoment(), 0);
+	}
+}
@@ -0,0 +1,235 @@
+package worldofaircraft;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Ångra och gör om för ritytan.
+ * <br/><br/>
+ * Varje ändring sparas som det drag som ritades, om något, och de motorer och joints
+ * som lades till eller togs bort. Med jämna mellanrum sparas dessutom en kopia av
+ * lagren, se MaterialLayers.Checkpoint, tillsammans med alla motorers och jointars
+ * positioner. För att ångra återställs allt från närmaste kopia före, och högst
+ * CHECKPOINT_INTERVAL ändringar görs om. Det kostar därför lika mycket att ångra
+ * oavsett hur lång historiken är, och en ändring tar bara plats för det som ändrades.
+ * <br/><br/>
+ * Historiken sparar högst MAX_EDITS ändringar. Blir den längre tas de äldsta bort,
+ * fram till nästa sparade kopia.
+ *
+ * @author Robin Lindh Nilsson
+ */
+public class EditHistory {
+
+	/** antal ändringar mellan två sparade kopior av lagren */
+	public static final int CHECKPOINT_INTERVAL = 25;
+	/** största antal ändringar som kan ångras */
+	public static final int MAX_EDITS = 1000;
+
+	/** delad tom lista för ändringar utan motorer eller joints */
+	private static final ArrayList<Point> NONE = new ArrayList<Point>(0);
+
+	/**
+	 * En ändring av ritytan.
+	 */
+	private static class Edit {
+
+		final MaterialShape stroke; //draget som ritades, eller null
+		final boolean clear; //lagren tömdes
+		final ArrayList<Point> addedEngines, removedEngines, addedJoints, removedJoints;
+
+		Edit(MaterialShape stroke, boolean clear, ArrayList<Point> addedEngines, ArrayList<Point> removedEngines,
+				ArrayList<Point> addedJoints, ArrayList<Point> removedJoints) {
+			this.stroke = stroke;
+			this.clear = clear;
+			this.addedEngines = addedEngines;
+			this.removedEngines = removedEngines;
+			this.addedJoints = addedJoints;
+			this.removedJoints = removedJoints;
+		}
+	}
+
+	/**
+	 * Allt som behövs för att återställa ritytan efter ett visst antal ändringar.
+	 */
+	private static class Checkpoint {
+
+		final MaterialLayers.Checkpoint layers;
+		final ArrayList<Point> enginePositions, jointPositions;
+
+		Checkpoint(MaterialLayers.Checkpoint layers, ArrayList<Point> enginePositions, ArrayList<Point> jointPositions) {
+			this.layers = layers;
+			this.enginePositions = copy(enginePositions);
+			this.jointPositions = copy(jointPositions);
+		}
+	}
+
+	private final MaterialLayers layers;
+	private ArrayList<Edit> edits = new ArrayList<Edit>();
+	private int position = 0; //antal ändringar som är gjorda, resten kan göras om
+	private TreeMap<Integer, Checkpoint> checkpoints = new TreeMap<Integer, Checkpoint>();
+	//motorernas och jointarnas positioner efter de ändringar som är gjorda
+	private ArrayList<Point> engines = new ArrayList<Point>(), joints = new ArrayList<Point>();
+
+	/**
+	 * @param layers lagren som ändringarna görs i. Ska vara tomma.
+	 */
+	public EditHistory(MaterialLayers layers) {
+		this.layers = layers;
+		checkpoints.put(0, new Checkpoint(layers.createCheckpoint(), engines, joints));
+	}
+
+	private static ArrayList<Point> copy(ArrayList<Point> points) {
+		ArrayList<Point> copy = new ArrayList<Point>(points.size());
+		for (Point point : points) {
+			copy.add(new Point(point));
+		}
+		return copy;
+	}
+
+	/**
+	 * @return kopior av positionerna i a som inte finns i b. Finns samma position flera
+	 * gånger räknas varje förekomst för sig.
+	 */
+	private static ArrayList<Point> difference(ArrayList<Point> a, ArrayList<Point> b) {
+		HashMap<Point, Integer> counts = new HashMap<Point, Integer>();
+		for (Point point : b) {
+			Integer count = counts.get(point);
+			counts.put(point, count == null ? 1 : count + 1);
+		}
+		ArrayList<Point> difference = NONE;
+		for (Point point : a) {
+			Integer count = counts.get(point);
+			if (count != null && count > 0) {
+				counts.put(point, count - 1);
+			} else {
+				if (difference == NONE) {
+					difference = new ArrayList<Point>();
+				}
+				difference.add(new Point(point));
+			}
+		}
+		return difference;
+	}
+
+	/**
+	 * Tar bort en förekomst av varje borttagen position och lägger till de nya sist.
+	 */
+	private static void applyChange(ArrayList<Point> positions, ArrayList<Point> removed, ArrayList<Point> added) {
+		for (Point point : removed) {
+			positions.remove(point);
+		}
+		for (Point point : added) {
+			positions.add(new Point(point));
+		}
+	}
+
+	/**
+	 * Sparar en ändring som redan har gjorts. Ändringar som har ångrats kan inte längre göras om.
+	 * @param stroke draget som ritades in i lagren, eller null om bara motorer och joints ändrades
+	 * @param clear true om lagren tömdes
+	 * @param enginePositions motorernas positioner efter ändringen
+	 * @param jointPositions jointarnas positioner efter ändringen
+	 */
+	public void record(MaterialShape stroke, boolean clear, ArrayList<Point> enginePositions, ArrayList<Point> jointPositions) {
+		while (edits.size() > position) {
+			edits.remove(edits.size() - 1);
+		}
+		checkpoints.tailMap(position, false).clear();
+
+		Edit edit = new Edit(stroke, clear,
+				difference(enginePositions, engines), difference(engines, enginePositions),
+				difference(jointPositions, joints), difference(joints, jointPositions));
+		edits.add(edit);
+		applyChange(engines, edit.removedEngines, edit.addedEngines);
+		applyChange(joints, edit.removedJoints, edit.addedJoints);
+		position++;
+		if (position - checkpoints.lastKey() >= CHECKPOINT_INTERVAL) {
+			checkpoints.put(position, new Checkpoint(layers.createCheckpoint(), engines, joints));
+		}
+		if (edits.size() > MAX_EDITS) {
+			removeOldest();
+		}
+	}
+
+	/**
+	 * Tar bort de äldsta ändringarna, fram till den första sparade kopian efter början.
+	 */
+	private void removeOldest() {
+		Integer first = checkpoints.higherKey(0);
+		if (first == null || first > position) {
+			return;
+		}
+		edits = new ArrayList<Edit>(edits.subList(first, edits.size()));
+		position -= first;
+
+		//kopian vid first blir den nya början, med sina positioner
+		TreeMap<Integer, Checkpoint> moved = new TreeMap<Integer, Checkpoint>();
+		for (Map.Entry<Integer, Checkpoint> entry : checkpoints.tailMap(first, true).entrySet()) {
+			moved.put(entry.getKey() - first, entry.getValue());
+		}
+		checkpoints = moved;
+	}
+
+	public boolean canUndo() {
+		return position > 0;
+	}
+
+	public boolean canRedo() {
+		return position < edits.size();
+	}
+
+	/**
+	 * Ångrar den senaste ändringen. Lagren återställs från närmaste sparade kopia.
+	 * @param enginePositions fylls med motorernas positioner efter ångringen
+	 * @param jointPositions fylls med jointarnas positioner efter ångringen
+	 */
+	public void undo(ArrayList<Point> enginePositions, ArrayList<Point> jointPositions) {
+		if (!canUndo()) {
+			return;
+		}
+		position--;
+		Map.Entry<Integer, Checkpoint> checkpoint = checkpoints.floorEntry(position);
+		layers.restore(checkpoint.getValue().layers);
+		engines = copy(checkpoint.getValue().enginePositions);
+		joints = copy(checkpoint.getValue().jointPositions);
+		for (int i = checkpoint.getKey(); i < position; i++) {
+			apply(edits.get(i));
+		}
+		restorePositions(enginePositions, jointPositions);
+	}
+
+	/**
+	 * Gör om den senast ångrade ändringen, genom att rita draget igen.
+	 * @param enginePositions fylls med motorernas positioner efter ändringen
+	 * @param jointPositions fylls med jointarnas positioner efter ändringen
+	 */
+	public void redo(ArrayList<Point> enginePositions, ArrayList<Point> jointPositions) {
+		if (!canRedo()) {
+			return;
+		}
+		apply(edits.get(position));
+		position++;
+		restorePositions(enginePositions, jointPositions);
+	}
+
+	private void apply(Edit edit) {
+		if (edit.clear) {
+			layers.clear();
+		}
+		if (edit.stroke != null) {
+			layers.paint(edit.stroke);
+		}
+		applyChange(engines, edit.removedEngines, edit.addedEngines);
+		applyChange(joints, edit.removedJoints, edit.addedJoints);
+	}
+
+	private void restorePositions(ArrayList<Point> enginePositions, ArrayList<Point> jointPositions) {
+		enginePositions.clear();
+		jointPositions.clear();
+		enginePositions.addAll(copy(engines));
+		jointPositions.addAll(copy(joints));
+	}
+}
@@ -4,48 +4,87 @@
  */
 package worldofaircraft;
 
+import java.awt.BorderLayout;
+import java.awt.Canvas;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.Toolkit;
 import java.awt.geom.AffineTransform;
+import java.awt.image.BufferStrategy;
 import javax.swing.JPanel;
 import physics.Vector;
 import physics.entities.Plane;
 import physics.entities.RigidBody;
 
 /**
- *
+ * Spelrundan. Fysiken stegas i en egen tråd, som också ritar ut varje bild.
+ * <br/><br/>
+ * Med ACTIVE_RENDERING ritas bilderna direkt på en Canvas med en BufferStrategy,
+ * exakt en gång per bild och i samma takt som spelets tråd, utan att gå via EDT.
+ * Annars anropas repaint() en gång per bild och bilden ritas av paintComponent.
+ * Efter varje bild publiceras planets tillstånd, se PlaneRenderer.publish, så att
+ * paintComponent på EDT aldrig läser planet medan det stegas. Planet ritas alltid
+ * ut från samma tråd, spelets tråd med ACTIVE_RENDERING och annars EDT, eftersom
+ * PlaneRenderer.paint bara får anropas från en tråd.
  * @author Robin
  */
 public class GamePanel extends JPanel implements Runnable {
 
-	public static int fpsLimit = 300;
+	public static int fpsLimit = 300; //bilder och fysiksteg per sekund med variabelt tidssteg
+	public static int fixedFpsLimit = 60; //bilder per sekund med fast tidssteg
+	public static int physicsRate = 300; //fysiksteg per sekund med fast tidssteg
+	public static int MAX_SUBSTEPS = 10; //max antal fysiksteg per bild, resten av tiden kastas
+	public static boolean FIXED_TIMESTEP = true;
 	public static double SCALE = 0.5;
 	public static int SCROLL_INTERVAL = 100;
 	public static double SCROLL_SPEED = 0.5;
+	public static boolean ACTIVE_RENDERING = true; //rita från spelets tråd med en BufferStrategy
+	private Canvas canvas = new Canvas(); //ritas på direkt med ACTIVE_RENDERING
+	private BufferStrategy strategy; //skapas när canvas visas första gången
 	private Vector cameraPos = new Vector(0, 0); //världskoordinater
 	private Rectangle scrollInterval; //världskoordinater
 	private Plane plane;
+	private PlaneRenderer renderer;
 	private AffineTransform scale = AffineTransform.getScaleInstance(SCALE, SCALE);
 	private InputManager inputManager;
-	private long lastUpdate;
+	private long lastUpdate; //nanosekunder
 	private double sleepTimer;
+	private double accumulator; //simulerad tid som ännu inte stegats, i sekunder
+	private long nextFrame; //nanosekunder
+	private double renderAlpha = 1; //hur långt mellan de två senaste stegen som ska ritas ut, se PlaneRenderer.publish
 	private boolean quit; //sätt till true för att stoppa spelrundan
 
 	public GamePanel() {
 		setBackground(Color.green);
 		inputManager = new InputManager(plane);
+
+		//tangenterna tas emot av fönstret, så canvas får inte ta fokus
+		setLayout(new BorderLayout());
+		canvas.setIgnoreRepaint(true);
+		canvas.setFocusable(false);
+		canvas.setVisible(ACTIVE_RENDERING);
+		add(canvas, BorderLayout.CENTER);
 	}
 
 	public void startFlight(Plane plane) {
-		this.plane = plane;
+		startFlight(new PlaneRenderer(plane));
+	}
+
+	/**
+	 * Startar spelrundan med ett plan vars bilder redan kan vara skapade, se PlaneAssembler.
+	 */
+	public void startFlight(PlaneRenderer renderer) {
+		this.plane = renderer.getPlane();
+		this.renderer = renderer;
 		inputManager.setPlane(plane);
 
 		//ställ upp ett interval för kamerapunkten att röra sig i
 		//kamerapunkten är världskoordinaterna för den utritade bildens övre vänstra hörn
 		setSize(getParent().getSize());
+		validate();
 		scrollInterval = new Rectangle();
 		scrollInterval.width = (int) Math.max(0, Level.levelWidth - getWidth()/SCALE);
 		scrollInterval.height = Level.levelHeight;
@@ -64,27 +103,103 @@ public class GamePanel extends JPanel implements Runnable {
 	}
 
 	public void run() {
-		lastUpdate = System.currentTimeMillis();
+		lastUpdate = System.nanoTime();
+		nextFrame = lastUpdate;
 		sleepTimer = 0;
+		accumulator = 0;
 		quit = false;
 		while (!quit) {
-			update();
-			repaint();
+			if (FIXED_TIMESTEP) {
+				updateFixed();
+			} else {
+				update();
+			}
+			//utritningen läser bara det publicerade tillståndet, aldrig planet direkt
+			renderer.publish(renderAlpha);
+			render();
 		}
 		//förstör och ta bort planet
+		renderer = null;
 		plane.destroy();
-		remove(plane);
 		plane = null;
 	}
 
+	/**
+	 * Ritar ut en bild. Med ACTIVE_RENDERING ritas den direkt på canvas och visas,
+	 * annars ritas den om av EDT. Bilder innan canvas visas hoppas över.
+	 */
+	private void render() {
+		if (!ACTIVE_RENDERING) {
+			repaint();
+			return;
+		}
+		if (!canvas.isDisplayable() || canvas.getWidth() <= 0 || canvas.getHeight() <= 0) {
+			return; //EDT får inte rita i stället, då ritar två trådar
+		}
+		if (strategy == null) {
+			canvas.createBufferStrategy(2);
+			strategy = canvas.getBufferStrategy();
+		}
+		do {
+			do {
+				Graphics2D g2d = (Graphics2D) strategy.getDrawGraphics();
+				paintGame(g2d, canvas.getWidth(), canvas.getHeight());
+				g2d.dispose();
+			} while (strategy.contentsRestored());
+			strategy.show();
+		} while (strategy.contentsLost());
+		Toolkit.getDefaultToolkit().sync();
+	}
+
 	public void stop() {
 		quit = true;
 	}
 
+	/**
+	 * Stegar fysiken med fasta tidssteg på 1/physicsRate sekunder, så många
+	 * som ryms i den tid som gått sedan förra bilden, och väntar sedan in nästa bild,
+	 * fixedFpsLimit bilder per sekund.
+	 * Det som blir över av tiden sparas till nästa bild, och används för att
+	 * interpolera utritningen mellan de två senaste stegen.
+	 */
+	private void updateFixed() {
+		long currTime = System.nanoTime();
+		accumulator += (currTime - lastUpdate) / 1e9;
+		lastUpdate = currTime;
+
+		double dt = 1.0 / physicsRate;
+		int steps = 0;
+		while (accumulator >= dt && steps < MAX_SUBSTEPS) {
+			plane.update(dt);
+			accumulator -= dt;
+			steps++;
+		}
+		if (accumulator >= dt) {
+			//hinner inte ikapp, släpp den överblivna tiden hellre än att spiralera
+			accumulator = 0;
+		}
+		renderAlpha = accumulator / dt;
+
+		//vänta in nästa bild
+		long frameInterval = (long) (1e9 / fixedFpsLimit);
+		nextFrame += frameInterval;
+		long sleepTime = nextFrame - System.nanoTime();
+		if (sleepTime > 0) {
+			try {
+				Thread.sleep(sleepTime / 1000000, (int) (sleepTime % 1000000));
+			} catch (InterruptedException ex) {
+			}
+		} else if (sleepTime < -frameInterval) {
+			//ligger mer än en bild efter, börja om från nu
+			nextFrame = System.nanoTime();
+		}
+	}
+
 	private void update() {
-		long currTime = System.currentTimeMillis();
-		double dt = (currTime - lastUpdate) / 1000.0;
+		long currTime = System.nanoTime();
+		double dt = (currTime - lastUpdate) / 1e9;
 		lastUpdate = currTime;
+		renderAlpha = 1;
 
 		if (dt > 0.2) // skydd mot laggiga buggar om FPS blir mindre än 5
 		{
@@ -114,17 +229,35 @@ public class GamePanel extends JPanel implements Runnable {
 		return inputManager;
 	}
 
+	/**
+	 * Med ACTIVE_RENDERING ritas spelet bara på canvas, från spelets tråd, och här
+	 * töms bara bakgrunden. Annars ritas spelet här.
+	 */
 	@Override
 	public void paintComponent(Graphics g) {
-		Graphics2D g2d = (Graphics2D) g;
+		if (ACTIVE_RENDERING) {
+			g.setColor(Color.white);
+			g.fillRect(0, 0, getWidth(), getHeight());
+			return;
+		}
+		paintGame((Graphics2D) g, getWidth(), getHeight());
+	}
+
+	/**
+	 * Ritar ut planet från kamerapunkten.
+	 */
+	private void paintGame(Graphics2D g2d, int width, int height) {
+		PlaneRenderer renderer = this.renderer;
 		g2d.setColor(Color.white);
-		g2d.fillRect(0, 0, getWidth(), getHeight());
+		g2d.fillRect(0, 0, width, height);
 		AffineTransform original = g2d.getTransform();
 		AffineTransform transform = new AffineTransform();
 		transform.translate(-cameraPos.x, -cameraPos.y);
 		g2d.transform(scale);
 		g2d.transform(transform);
-		plane.paintComponent(g2d);
+		if (renderer != null) {
+			renderer.paint(g2d);
+		}
 		g2d.setTransform(original);
 
 	}
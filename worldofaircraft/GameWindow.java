@@ -12,9 +12,10 @@
 package worldofaircraft;
 
 import physics.Material;
-import physics.entities.Plane;
 import java.awt.CardLayout;
 import java.awt.Rectangle;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
 
 /**
@@ -374,12 +375,36 @@ public class GameWindow extends javax.swing.JFrame{
 
 	//event för att avsluta designfasen
 	private void startButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_startButtonActionPerformed
-		Plane plane = paintArea.assemblePlane();
-		game.startFlight(plane);
+		//planet sätts ihop utanför EDT, knappen visar hur långt det har kommit
+		final PlaneAssembler assembler = paintArea.createAssembler();
+		startButton.setEnabled(false);
+		assembler.addPropertyChangeListener(new PropertyChangeListener() {
+			public void propertyChange(PropertyChangeEvent evt) {
+				if ("progress".equals(evt.getPropertyName()) && !assembler.isDone()) {
+					startButton.setText(evt.getNewValue() + "%");
+				} else if (assembler.isDone() && "state".equals(evt.getPropertyName())) {
+					startButton.setText("Start");
+					startButton.setEnabled(true);
+					startFlight(assembler);
+				}
+			}
+		});
+		assembler.execute();
+	}//GEN-LAST:event_startButtonActionPerformed
+
+	private void startFlight(PlaneAssembler assembler) {
+		try {
+			assembler.get();
+		} catch (Exception ex) {
+			System.err.println("Could not assemble plane\n");
+			ex.printStackTrace();
+			return;
+		}
+		game.startFlight(assembler.getRenderer());
 		requestFocus();
-		
+
 		((CardLayout) getContentPane().getLayout()).next(getContentPane());
-	}//GEN-LAST:event_startButtonActionPerformed
+	}
 
 	private void stopButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_stopButtonActionPerformed
 		game.stop();
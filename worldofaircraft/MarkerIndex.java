@@ -0,0 +1,84 @@
+package worldofaircraft;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import physics.TiledMask;
+
+/**
+ * Ett rutnät med positionerna för motorer eller joints i ritytan, för att hitta
+ * de som ligger inom en rektangel utan att gå igenom alla. Rutorna är lika stora
+ * som bitarna i MaterialLayers, och endast rutor med någon position lagras.
+ *
+ * @author Robin Lindh Nilsson
+ */
+public class MarkerIndex {
+
+	private final HashMap<Long, ArrayList<Point>> cells = new HashMap<Long, ArrayList<Point>>();
+
+	private static long cellOf(Point position) {
+		return TiledMask.key(TiledMask.tileOf(position.x), TiledMask.tileOf(position.y));
+	}
+
+	public void add(Point position) {
+		long key = cellOf(position);
+		ArrayList<Point> cell = cells.get(key);
+		if (cell == null) {
+			cell = new ArrayList<Point>();
+			cells.put(key, cell);
+		}
+		cell.add(position);
+	}
+
+	/**
+	 * Tar bort just den här positionen. Andra positioner med samma koordinater behålls.
+	 */
+	public void remove(Point position) {
+		long key = cellOf(position);
+		ArrayList<Point> cell = cells.get(key);
+		if (cell == null) {
+			return;
+		}
+		for (int i = 0; i < cell.size(); i++) {
+			if (cell.get(i) == position) {
+				cell.remove(i);
+				break;
+			}
+		}
+		if (cell.isEmpty()) {
+			cells.remove(key);
+		}
+	}
+
+	/**
+	 * Ersätter alla positioner, t.ex. efter att en ändring har ångrats.
+	 */
+	public void rebuild(ArrayList<Point> positions) {
+		cells.clear();
+		for (Point position : positions) {
+			add(position);
+		}
+	}
+
+	/**
+	 * @return positionerna som ligger inom rektangeln
+	 */
+	public ArrayList<Point> getPointsIn(Rectangle area) {
+		ArrayList<Point> found = new ArrayList<Point>();
+		for (int ty = TiledMask.tileOf(area.y); ty <= TiledMask.tileOf(area.y + area.height - 1); ty++) {
+			for (int tx = TiledMask.tileOf(area.x); tx <= TiledMask.tileOf(area.x + area.width - 1); tx++) {
+				ArrayList<Point> cell = cells.get(TiledMask.key(tx, ty));
+				if (cell == null) {
+					continue;
+				}
+				for (Point position : cell) {
+					if (area.contains(position)) {
+						found.add(position);
+					}
+				}
+			}
+		}
+		return found;
+	}
+}
@@ -0,0 +1,262 @@
+package worldofaircraft;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import physics.BitMask;
+import physics.Material;
+import physics.PixelMasks;
+import physics.TiledMask;
+
+/**
+ * Rastrerade lager för ritytan. Varje linje som ritas målas in i lagren en gång,
+ * och sparas inte efter det. Att rita ut ritytan, kontrollera motorer och joints
+ * och sätta ihop planet kostar därför lika mycket oavsett hur mycket som har ritats.
+ * <br/><br/>
+ * Det finns ett lager med alla material, som det visas för användaren, och
+ * ett lager för varje material som planet byggs av. Materiallagren innehåller bara
+ * sitt eget material, och suddgummit, som målar vitt i alla lager.
+ * Tomma pixlar är vita, på samma sätt som i PixelMasks.
+ * <br/><br/>
+ * Lagren har inga gränser. De delas upp i bitar om CHUNK_SIZE gånger CHUNK_SIZE pixlar,
+ * och en bit skapas först när något material målas i den. Bitar som suddas ut helt tas
+ * bort igen. Minnet växer därför med den ritade ytan, och inte med hur stort planet är.
+ *
+ * @author Robin Lindh Nilsson
+ */
+public class MaterialLayers {
+
+	/** material som har ett eget lager, i den ordning lagren kontrolleras */
+	public static final Material[] MATERIALS = {Material.WING_MATERIAL, Material.STRUCTURE_MATERIAL};
+	/** bitarnas storlek i pixlar, samma som rutorna i TiledMask */
+	public static final int CHUNK_SIZE = TiledMask.TILE_SIZE;
+
+	/**
+	 * En bit av lagren. Bit (tx, ty) börjar i pixel (tx * CHUNK_SIZE, ty * CHUNK_SIZE).
+	 */
+	private static class Chunk {
+
+		final BufferedImage canvas = createImage(); //alla material
+		final EnumMap<Material, BufferedImage> layers = new EnumMap<Material, BufferedImage>(Material.class);
+
+		Chunk() {
+			for (Material material : MATERIALS) {
+				layers.put(material, createImage());
+			}
+		}
+	}
+
+	private HashMap<Long, Chunk> chunks = new HashMap<Long, Chunk>();
+
+	/**
+	 * Skapar en vit bild med en bits storlek.
+	 */
+	private static BufferedImage createImage() {
+		BufferedImage image = new BufferedImage(CHUNK_SIZE, CHUNK_SIZE, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g2d = image.createGraphics();
+		g2d.setColor(Color.white);
+		g2d.fillRect(0, 0, CHUNK_SIZE, CHUNK_SIZE);
+		g2d.dispose();
+		return image;
+	}
+
+	/**
+	 * Målar in en linje i lagren den hör till. Endast bitarna som linjen täcker ritas om,
+	 * och bara de skapas.
+	 * @return området som linjen täcker, i ritytans koordinater
+	 */
+	public Rectangle paint(MaterialShape shape) {
+		Shape stroked = shape.stroke.createStrokedShape(shape.shape);
+		Rectangle bounds = stroked.getBounds();
+		boolean erase = shape.material == Material.NULL_MATERIAL;
+		for (int ty = TiledMask.tileOf(bounds.y); ty <= TiledMask.tileOf(bounds.y + bounds.height); ty++) {
+			for (int tx = TiledMask.tileOf(bounds.x); tx <= TiledMask.tileOf(bounds.x + bounds.width); tx++) {
+				if (!stroked.intersects(tx * CHUNK_SIZE, ty * CHUNK_SIZE, CHUNK_SIZE, CHUNK_SIZE)) {
+					continue; //linjen går förbi biten
+				}
+				long key = TiledMask.key(tx, ty);
+				Chunk chunk = chunks.get(key);
+				boolean created = false;
+				if (chunk == null) {
+					if (erase) {
+						continue; //inget att sudda ut
+					}
+					chunk = new Chunk();
+					chunks.put(key, chunk);
+					created = true;
+				}
+				paintInto(chunk.canvas, shape, tx, ty);
+				for (Material material : MATERIALS) {
+					//rita nuvarande material + null-materialet för utsuddning
+					if (shape.material == material || erase) {
+						paintInto(chunk.layers.get(material), shape, tx, ty);
+					}
+				}
+				//en ny bit kan vara tom om linjen bara nuddar den
+				if ((erase || created) && isWhite(chunk.canvas)) {
+					chunks.remove(key);
+				}
+			}
+		}
+		return bounds;
+	}
+
+	private static void paintInto(BufferedImage layer, MaterialShape shape, int tx, int ty) {
+		Graphics2D g2d = layer.createGraphics();
+		g2d.translate(-tx * CHUNK_SIZE, -ty * CHUNK_SIZE);
+		shape.paint(g2d);
+		g2d.dispose();
+	}
+
+	private static boolean isWhite(BufferedImage image) {
+		int[] row = new int[CHUNK_SIZE];
+		for (int j = 0; j < CHUNK_SIZE; j++) {
+			image.getRGB(0, j, CHUNK_SIZE, 1, row, 0, CHUNK_SIZE);
+			for (int i = 0; i < CHUNK_SIZE; i++) {
+				if (row[i] != Material.NULL_MATERIAL.rgb) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Tömmer alla lager.
+	 */
+	public void clear() {
+		chunks.clear();
+	}
+
+	/**
+	 * Ritar ut lagret med alla material, som det ska visas.
+	 * @param visible den synliga delen av lagren. Bitar utanför ritas inte.
+	 */
+	public void drawCanvas(Graphics2D g2d, Rectangle visible) {
+		for (Map.Entry<Long, Chunk> entry : chunks.entrySet()) {
+			int x = TiledMask.keyX(entry.getKey()) * CHUNK_SIZE;
+			int y = TiledMask.keyY(entry.getKey()) * CHUNK_SIZE;
+			if (visible.intersects(x, y, CHUNK_SIZE, CHUNK_SIZE)) {
+				g2d.drawImage(entry.getValue().canvas, x, y, null);
+			}
+		}
+	}
+
+	/**
+	 * En sparad kopia av lagren, se createCheckpoint. Lagren innehåller bara vitt och
+	 * materialens färger, så varje färg sparas som en BitMask med en bit per pixel.
+	 * Endast bitar med något material sparas.
+	 */
+	public static class Checkpoint {
+
+		private final HashMap<Long, BitMask[]> canvas; //pixlar med varje materials färg i varje bit, som MATERIALS
+		private final HashMap<Long, BitMask[]> layers; //fyllda pixlar i varje bits materiallager, som MATERIALS
+
+		private Checkpoint(HashMap<Long, BitMask[]> canvas, HashMap<Long, BitMask[]> layers) {
+			this.canvas = canvas;
+			this.layers = layers;
+		}
+	}
+
+	/**
+	 * Sparar lagrens innehåll, med en bit per pixel och lager.
+	 */
+	public Checkpoint createCheckpoint() {
+		HashMap<Long, BitMask[]> canvasMasks = new HashMap<Long, BitMask[]>();
+		HashMap<Long, BitMask[]> layerMasks = new HashMap<Long, BitMask[]>();
+		int[] row = new int[CHUNK_SIZE];
+		for (Map.Entry<Long, Chunk> entry : chunks.entrySet()) {
+			Chunk chunk = entry.getValue();
+			BitMask[] canvasChunk = new BitMask[MATERIALS.length];
+			BitMask[] layerChunk = new BitMask[MATERIALS.length];
+			for (int m = 0; m < MATERIALS.length; m++) {
+				canvasChunk[m] = new BitMask(CHUNK_SIZE, CHUNK_SIZE);
+				layerChunk[m] = PixelMasks.fromImage(chunk.layers.get(MATERIALS[m]));
+			}
+			for (int j = 0; j < CHUNK_SIZE; j++) {
+				chunk.canvas.getRGB(0, j, CHUNK_SIZE, 1, row, 0, CHUNK_SIZE);
+				for (int i = 0; i < CHUNK_SIZE; i++) {
+					for (int m = 0; m < MATERIALS.length; m++) {
+						if (row[i] == MATERIALS[m].rgb) {
+							canvasChunk[m].set(i, j);
+						}
+					}
+				}
+			}
+			canvasMasks.put(entry.getKey(), canvasChunk);
+			layerMasks.put(entry.getKey(), layerChunk);
+		}
+		return new Checkpoint(canvasMasks, layerMasks);
+	}
+
+	/**
+	 * Återställer lagren till en sparad kopia. Bitar som inte finns i kopian tas bort.
+	 */
+	public void restore(Checkpoint checkpoint) {
+		chunks = new HashMap<Long, Chunk>();
+		for (Map.Entry<Long, BitMask[]> entry : checkpoint.canvas.entrySet()) {
+			Chunk chunk = new Chunk();
+			paintMasks(chunk.canvas, entry.getValue(), MATERIALS);
+			BitMask[] layerMasks = checkpoint.layers.get(entry.getKey());
+			for (int m = 0; m < MATERIALS.length; m++) {
+				paintMasks(chunk.layers.get(MATERIALS[m]), new BitMask[] {layerMasks[m]}, new Material[] {MATERIALS[m]});
+			}
+			chunks.put(entry.getKey(), chunk);
+		}
+	}
+
+	/**
+	 * Skriver över lagret med vitt, och masken för varje material i materialets färg.
+	 * @param masks en mask per material
+	 * @param materials materialen, i samma ordning som maskerna
+	 */
+	private static void paintMasks(BufferedImage layer, BitMask[] masks, Material[] materials) {
+		int[] row = new int[CHUNK_SIZE];
+		for (int j = 0; j < CHUNK_SIZE; j++) {
+			Arrays.fill(row, Material.NULL_MATERIAL.rgb);
+			for (int m = 0; m < masks.length; m++) {
+				for (int i = masks[m].nextSetBit(0, j); i != -1; i = masks[m].nextSetBit(i + 1, j)) {
+					row[i] = materials[m].rgb;
+				}
+			}
+			layer.setRGB(0, j, CHUNK_SIZE, 1, row, 0, CHUNK_SIZE);
+		}
+	}
+
+	/**
+	 * @return en gles mask med materialets pixlar, som kan läsas från en annan tråd
+	 * medan användaren fortsätter att rita. Endast bitarna som finns läses.
+	 */
+	public TiledMask toMask(Material material) {
+		TiledMask mask = new TiledMask();
+		for (Map.Entry<Long, Chunk> entry : chunks.entrySet()) {
+			mask.setTile(TiledMask.keyX(entry.getKey()), TiledMask.keyY(entry.getKey()),
+					PixelMasks.fromImage(entry.getValue().layers.get(material)));
+		}
+		return mask;
+	}
+
+	/**
+	 * @return true om materialet är ritat i punkten
+	 */
+	public boolean isFilled(Material material, int x, int y) {
+		Chunk chunk = chunks.get(TiledMask.key(TiledMask.tileOf(x), TiledMask.tileOf(y)));
+		if (chunk == null) {
+			return false;
+		}
+		return chunk.layers.get(material).getRGB(Math.floorMod(x, CHUNK_SIZE), Math.floorMod(y, CHUNK_SIZE)) != -1;
+	}
+
+	/**
+	 * @return antalet bitar som finns
+	 */
+	public int getChunkCount() {
+		return chunks.size();
+	}
+}
@@ -2,12 +2,13 @@
  * To change this template, choose Tools | Templates
  * and open the template in the editor.
  */
-package physics;
+package worldofaircraft;
 
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Shape;
+import physics.Material;
 
 /**
  *
@@ -18,15 +19,17 @@ public class MaterialShape{
 	public Shape shape;
 	public Material material;
 	public BasicStroke stroke;
+	public Color color;
 
 	public MaterialShape(Shape shape, Material material, int paintDiameter) {
 		stroke = new BasicStroke(paintDiameter, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
 		this.shape = shape;
 		this.material = material;
+		color = new Color(material.rgb, true);
 	}
 
 	public void paint(Graphics2D g2d) {
-		g2d.setColor(material.color);
+		g2d.setColor(color);
 		g2d.setStroke(stroke);
 		g2d.draw(shape);
 	}
@@ -3,78 +3,131 @@
  */
 package worldofaircraft;
 
-import physics.MaterialShape;
 import physics.Material;
-import physics.entities.Wing;
-import physics.entities.Part;
 import physics.entities.Plane;
-import physics.entities.SpringJoint;
-import physics.entities.Structure;
 import java.awt.*;
 import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
-import java.awt.geom.Line2D;
-import java.awt.image.BufferedImage;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
-import physics.entities.Engine;
 
 /**
  * Tillhandahåller en rityta där användaren kan rita med musen.
- * Det man ritar lagras som en mängd linjer.
+ * Det man ritar målas direkt in i rastrerade lager, se MaterialLayers.
+ * Ritytan har inga gränser: mittenknappen flyttar vyn och mushjulet zoomar.
+ * Alla positioner sparas i ritytans koordinater, oberoende av vyn.
+ * <br/><br/>
+ * Vid varje musrörelse ritas bara de områden om som har ändrats: pennan på sin gamla
+ * och nya plats, den senaste biten av draget och motorer eller joints som lagts till
+ * eller tagits bort. Resten av ritytan ritas från de färdiga lagren.
  * @author Robin Lindh Nilsson
  */
-public class PaintLayer extends JPanel implements MouseListener, MouseMotionListener {
+public class PaintLayer extends JPanel implements MouseListener, MouseMotionListener, MouseWheelListener {
 
 	public static final int PLACE_JOINT = 0;
 	public static final int PLACE_ENGINE = 1;
-	private ArrayList<MaterialShape> shapes = new ArrayList<MaterialShape>();
+	public static final double MIN_ZOOM = 0.125;
+	public static final double MAX_ZOOM = 8;
+	/** extra marginal runt områden som ritas om, i vyns pixlar, för pennans kantlinje och avrundning */
+	private static final int REPAINT_MARGIN = 2;
+	private MaterialLayers layers = new MaterialLayers();
+	private EditHistory history = new EditHistory(layers);
 	private ArrayList<Point> jointPositions = new ArrayList<Point>();
 	private ArrayList<Point> enginePositions = new ArrayList<Point>();
-	private Point paintPos = null;
+	private MarkerIndex jointIndex = new MarkerIndex(); //samma positioner som jointPositions
+	private MarkerIndex engineIndex = new MarkerIndex(); //samma positioner som enginePositions
+	private StrokePath stroke = null; //draget som ritas just nu, målas in i lagren när musknappen släpps
+	private MaterialShape strokeShape = null; //draget med sitt material och sin penselstorlek
 	private Material paintMaterial = Material.WING_MATERIAL;
 	private int rightClickAction = PLACE_JOINT;
 	private Point cursorLocation = new Point(0, 0);
 	private boolean showCursor = false;
 	private int paintDiameter = 7;
 	private boolean isPressed_leftMouseButton = false;
+	private double zoom = 1;
+	private double viewX = 0, viewY = 0; //ritytans koordinater för vyns övre vänstra hörn
+	private Point panStart = null; //där mittenknappen trycktes ner, i vyns koordinater
+	private double panStartX, panStartY; //vyns position när mittenknappen trycktes ner
 
 	public PaintLayer() {
 		addMouseListener(this);
 		addMouseMotionListener(this);
+		addMouseWheelListener(this);
 		setOpaque(false);
+
+		//ctrl+z ångrar, ctrl+y och ctrl+shift+z gör om
+		int mask = Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx();
+		InputMap inputMap = getInputMap(WHEN_IN_FOCUSED_WINDOW);
+		inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, mask), "undo");
+		inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_Y, mask), "redo");
+		inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, mask | InputEvent.SHIFT_DOWN_MASK), "redo");
+		getActionMap().put("undo", new AbstractAction() {
+			public void actionPerformed(ActionEvent e) {
+				undo();
+			}
+		});
+		getActionMap().put("redo", new AbstractAction() {
+			public void actionPerformed(ActionEvent e) {
+				redo();
+			}
+		});
 	}
 
 	@Override
 	protected void paintComponent(Graphics g) {
 		Graphics2D g2d = (Graphics2D) g;
+		//endast området som ska ritas om
+		Rectangle clip = g2d.getClipBounds();
+		if (clip == null) {
+			clip = new Rectangle(0, 0, getWidth(), getHeight());
+		}
 		//clear
 		g2d.setColor(Color.white);
-		g2d.fillRect(0, 0, getWidth(), getHeight());
+		g2d.fillRect(clip.x, clip.y, clip.width, clip.height);
 
-		for (MaterialShape shape : shapes) {
-			shape.paint(g2d);
+		Graphics2D world = (Graphics2D) g2d.create();
+		world.scale(zoom, zoom);
+		world.translate(-viewX, -viewY);
+		paintWorld(world, toWorld(clip));
+		world.dispose();
+	}
+
+	/**
+	 * Ritar lagren, draget som ritas just nu, motorer, joints och pennan, i ritytans koordinater.
+	 * @param visible området som ska ritas, i ritytans koordinater
+	 */
+	private void paintWorld(Graphics2D g2d, Rectangle visible) {
+		layers.drawCanvas(g2d, visible);
+		if (strokeShape != null) {
+			strokeShape.paint(g2d);
 		}
 
-		for (Point jointPosition : jointPositions) {
-			SpringJoint.JOINT_IMAGE.drawCenteredAt(jointPosition, g2d);
+		//motorer och joints som kan synas i området
+		for (Point jointPosition : jointIndex.getPointsIn(grow(visible, Sprite.JOINT))) {
+			Sprite.JOINT.drawCenteredAt(jointPosition, g2d);
 		}
 
-		for (Point enginePosition : enginePositions) {
-			Engine.ENGINE_IMAGE.drawCenteredAt(enginePosition, g2d);
+		for (Point enginePosition : engineIndex.getPointsIn(grow(visible, Sprite.ENGINE))) {
+			Sprite.ENGINE.drawCenteredAt(enginePosition, g2d);
 		}
 
 		if (showCursor) {
 			if (paintMaterial != Material.NULL_MATERIAL) {
 				//pencil
-				g2d.setColor(paintMaterial.color);
+				g2d.setColor(new Color(paintMaterial.rgb, true));
 				g2d.fillOval(cursorLocation.x - paintDiameter / 2,
 						cursorLocation.y - paintDiameter / 2,
 						paintDiameter, paintDiameter);
 			} else {
 				//Rubber
-				g2d.setStroke(new BasicStroke(2));
+				g2d.setStroke(new BasicStroke((float) (2 / zoom)));
 				g2d.setColor(Color.black);
 				g2d.drawOval(cursorLocation.x - paintDiameter / 2,
 						cursorLocation.y - paintDiameter / 2,
@@ -83,79 +136,191 @@ public class PaintLayer extends JPanel implements MouseListener, MouseMotionList
 		}
 	}
 
-	public void paintOneMaterial(Graphics2D g2d, Material material) {
-		//clear
-		g2d.setColor(Color.white);
-		g2d.fillRect(0, 0, getWidth(), getHeight());
+	/**
+	 * @return området i ritytan som täcks av ett område i vyn
+	 */
+	private Rectangle toWorld(Rectangle viewArea) {
+		int x = (int) Math.floor(toWorldX(viewArea.x)), y = (int) Math.floor(toWorldY(viewArea.y));
+		return new Rectangle(x, y,
+				(int) Math.ceil(toWorldX(viewArea.x + viewArea.width)) - x + 1,
+				(int) Math.ceil(toWorldY(viewArea.y + viewArea.height)) - y + 1);
+	}
 
-		for (MaterialShape shape : shapes) {
-			//rita nuvarande material + null-materialet för utsuddning
-			if (shape.material == material || shape.material == Material.NULL_MATERIAL) {
-				shape.paint(g2d);
-			}
-		}
+	/**
+	 * Ritar om ett område, angivet i ritytans koordinater.
+	 */
+	private void repaintWorld(Rectangle2D area) {
+		int x = (int) Math.floor((area.getMinX() - viewX) * zoom) - REPAINT_MARGIN;
+		int y = (int) Math.floor((area.getMinY() - viewY) * zoom) - REPAINT_MARGIN;
+		repaint(x, y,
+				(int) Math.ceil((area.getMaxX() - viewX) * zoom) + REPAINT_MARGIN - x + 1,
+				(int) Math.ceil((area.getMaxY() - viewY) * zoom) + REPAINT_MARGIN - y + 1);
+	}
+
+	/**
+	 * @return området utökat med en halv bild åt alla håll, så att bilder som ritas
+	 * centrerade i området täcks
+	 */
+	private static Rectangle grow(Rectangle area, Sprite sprite) {
+		Rectangle grown = new Rectangle(area);
+		grown.grow(sprite.width / 2 + 1, sprite.height / 2 + 1);
+		return grown;
+	}
+
+	/**
+	 * @return området som en motor eller joint täcker, för att rita om den
+	 */
+	private static Rectangle getMarkerBounds(Point position) {
+		return grow(new Rectangle(position.x, position.y, 1, 1),
+				Sprite.ENGINE.width > Sprite.JOINT.width ? Sprite.ENGINE : Sprite.JOINT);
+	}
+
+	/**
+	 * @return området som pennan täcker
+	 */
+	private Rectangle getCursorBounds() {
+		return new Rectangle(cursorLocation.x - paintDiameter / 2 - 1, cursorLocation.y - paintDiameter / 2 - 1,
+				paintDiameter + 2, paintDiameter + 2);
 	}
 
-	private void drawDot(Point location) {
-		if (paintPos != null) {
-			Shape newShape = new Line2D.Double(paintPos.x, paintPos.y, location.x, location.y);
-			shapes.add(new MaterialShape(newShape, paintMaterial, paintDiameter));
+	/**
+	 * Flyttar pennan och ritar om den på den gamla och den nya platsen.
+	 */
+	private void moveCursor(Point location) {
+		repaintWorld(getCursorBounds());
+		cursorLocation = location;
+		repaintWorld(getCursorBounds());
+	}
+
+	private double toWorldX(int viewPosition) {
+		return viewX + viewPosition / zoom;
+	}
+
+	private double toWorldY(int viewPosition) {
+		return viewY + viewPosition / zoom;
+	}
 
-			if (paintMaterial == Material.NULL_MATERIAL) {
-				removeInvalidParts();
+	/**
+	 * @return pixeln i ritytan under en punkt i vyn
+	 */
+	private Point toWorld(Point viewPosition) {
+		return new Point((int) Math.floor(toWorldX(viewPosition.x)), (int) Math.floor(toWorldY(viewPosition.y)));
+	}
+
+	private void drawDot(MouseEvent e) {
+		if (stroke != null) {
+			stroke.lineTo(toWorldX(e.getX()), toWorldY(e.getY()));
+			strokeShape.shape = stroke.getPath();
+			//bara den sista biten av draget har ändrats
+			Rectangle2D changed = (Rectangle2D) stroke.getLastChange().clone();
+			double radius = paintDiameter / 2.0;
+			changed.setRect(changed.getX() - radius, changed.getY() - radius,
+					changed.getWidth() + paintDiameter, changed.getHeight() + paintDiameter);
+			if (strokeShape.material == Material.NULL_MATERIAL) {
+				removeErasedParts(changed.getBounds());
 			}
+			repaintWorld(changed);
+		}
+	}
 
-			repaint();
-			paintPos.setLocation(location.x, location.y);
+	private void startStroke(MouseEvent e) {
+		stroke = new StrokePath(toWorldX(e.getX()), toWorldY(e.getY()));
+		strokeShape = new MaterialShape(stroke.getPath(), paintMaterial, paintDiameter);
+		repaintWorld(strokeShape.stroke.createStrokedShape(strokeShape.shape).getBounds2D());
+	}
+
+	/**
+	 * Målar in hela draget i lagren som en enda polylinje.
+	 */
+	private void finishStroke() {
+		if (stroke == null) {
+			return;
+		}
+		Rectangle changed = layers.paint(strokeShape);
+		if (strokeShape.material == Material.NULL_MATERIAL) {
+			removeInvalidParts(changed);
 		}
+		history.record(strokeShape, false, enginePositions, jointPositions);
+		stroke = null;
+		strokeShape = null;
+		//borttagna motorer och joints ligger i området, men deras bilder kan sticka ut
+		repaintWorld(changed.union(getMarkerBounds(new Point(changed.x, changed.y)))
+				.union(getMarkerBounds(new Point(changed.x + changed.width, changed.y + changed.height))));
 	}
 
 	public void mouseEntered(MouseEvent e) {
 		showCursor = true;
-		cursorLocation = e.getPoint();
-		repaint();
+		moveCursor(toWorld(e.getPoint()));
 	}
 
 	public void mouseExited(MouseEvent e) {
 		showCursor = false;
-		repaint();
+		repaintWorld(getCursorBounds());
 	}
 
 	public void mouseMoved(MouseEvent e) {
-		cursorLocation = e.getPoint();
-		repaint();
+		moveCursor(toWorld(e.getPoint()));
 	}
 
 	public void mouseDragged(MouseEvent e) {
-		cursorLocation = e.getPoint();
+		if (panStart != null) {
+			//hela vyn flyttas
+			viewX = panStartX - (e.getX() - panStart.x) / zoom;
+			viewY = panStartY - (e.getY() - panStart.y) / zoom;
+			cursorLocation = toWorld(e.getPoint());
+			repaint();
+			return;
+		}
+		moveCursor(toWorld(e.getPoint()));
 		if (isPressed_leftMouseButton) {
-			drawDot(e.getPoint());
+			drawDot(e);
 		}
 	}
 
+	/**
+	 * Zoomar in eller ut runt punkten under muspekaren.
+	 */
+	public void mouseWheelMoved(MouseWheelEvent e) {
+		double worldX = toWorldX(e.getX()), worldY = toWorldY(e.getY());
+		zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom * Math.pow(1.25, -e.getWheelRotation())));
+		viewX = worldX - e.getX() / zoom;
+		viewY = worldY - e.getY() / zoom;
+		cursorLocation = toWorld(e.getPoint());
+		repaint();
+	}
+
 	public void mousePressed(MouseEvent e) {
-		Point clickPoint = new Point(e.getX(), e.getY());
+		Point clickPoint = toWorld(e.getPoint());
 
 		switch (e.getButton()) {
 
 			case MouseEvent.BUTTON1:
-				paintPos = clickPoint;
 				isPressed_leftMouseButton = true;
-				drawDot(paintPos);
+				startStroke(e);
 
 				break;
 
+			case MouseEvent.BUTTON2:
+				panStart = e.getPoint();
+				panStartX = viewX;
+				panStartY = viewY;
+				break;
+
 			case MouseEvent.BUTTON3:
 				switch (rightClickAction) {
 					case PLACE_JOINT:
-						jointPositions.add(new Point(e.getX(), e.getY()));
+						jointPositions.add(clickPoint);
+						jointIndex.add(clickPoint);
 						break;
 					case PLACE_ENGINE:
-						enginePositions.add(new Point(e.getX(), e.getY()));
+						enginePositions.add(clickPoint);
+						engineIndex.add(clickPoint);
 						break;
 				}
-				removeInvalidParts();
-				repaint();
+				//inget har målats, så bara den nya punkten behöver kontrolleras
+				removeInvalidParts(new Rectangle(clickPoint.x, clickPoint.y, 1, 1));
+				history.record(null, false, enginePositions, jointPositions);
+				repaintWorld(getMarkerBounds(clickPoint));
 				break;
 		}
 	}
@@ -163,43 +328,79 @@ public class PaintLayer extends JPanel implements MouseListener, MouseMotionList
 	public void mouseReleased(MouseEvent e) {
 
 		if (e.getButton() == MouseEvent.BUTTON1) {
-			paintPos = null;
+			finishStroke();
 			isPressed_leftMouseButton = false;
+		} else if (e.getButton() == MouseEvent.BUTTON2) {
+			panStart = null;
 		}
 	}
 
-	public void removeInvalidParts() {
-		//definierar lager för jointkontrollen
-		//en joint måste överlappa minst 2 lager för att vara giltig
-		Material[] drawMaterials = {Material.WING_MATERIAL, Material.STRUCTURE_MATERIAL};
-
-		BufferedImage[] paintedMaterials = new BufferedImage[drawMaterials.length];
+	/**
+	 * Tar bort motorer och joints som suddgummit har gått över under draget som pågår,
+	 * bland dem som ligger inom ett område. Draget målas in i lagren först när musknappen
+	 * släpps, men allt material under suddgummit försvinner, så de sitter inte fast längre.
+	 * removeInvalidParts kontrollerar dem mot lagren när draget är klart.
+	 * @param changed den del av draget som har ändrats, i ritytans koordinater
+	 */
+	private void removeErasedParts(Rectangle changed) {
+		ArrayList<Point> joints = jointIndex.getPointsIn(changed);
+		ArrayList<Point> engines = engineIndex.getPointsIn(changed);
+		if (joints.isEmpty() && engines.isEmpty()) {
+			return;
+		}
 
-		for (int i = 0; i < drawMaterials.length; i++) {
-			paintedMaterials[i] = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_ARGB);
-			paintOneMaterial(paintedMaterials[i].createGraphics(), drawMaterials[i]);
+		//pixlar vars mittpunkt ligger under suddgummit suddas ut
+		Shape erased = strokeShape.stroke.createStrokedShape(strokeShape.shape);
+		for (Point jointPosition : joints) {
+			if (erased.contains(jointPosition.x + 0.5, jointPosition.y + 0.5)) {
+				removeMarker(jointPositions, jointIndex, jointPosition);
+				repaintWorld(getMarkerBounds(jointPosition));
+			}
+		}
+		for (Point enginePosition : engines) {
+			if (erased.contains(enginePosition.x + 0.5, enginePosition.y + 0.5)) {
+				removeMarker(enginePositions, engineIndex, enginePosition);
+				repaintWorld(getMarkerBounds(enginePosition));
+			}
 		}
+	}
+
+	/**
+	 * Tar bort motorer och joints som inte längre sitter fast, bland dem som ligger
+	 * inom ett område som har ändrats. Övriga påverkas inte av ändringen och
+	 * kontrolleras inte.
+	 * @param changed området som har ändrats, i ritytans koordinater
+	 */
+	private void removeInvalidParts(Rectangle changed) {
+		ArrayList<Point> joints = jointIndex.getPointsIn(changed);
+		ArrayList<Point> engines = engineIndex.getPointsIn(changed);
+
+		//lagren för jointkontrollen, se MaterialLayers.MATERIALS
+		//en joint måste överlappa minst 2 lager för att vara giltig
+		//endast bitarna under motorerna och jointarna läses
+		MaterialLayers paintedMaterials = layers;
 
 		//remove invalid joints
 		ArrayList<Point> toRemove = new ArrayList<Point>();
-		for (Point jointPosition : jointPositions) {
-			for (BufferedImage materialImage : paintedMaterials) {
-				if (materialImage.getRGB(jointPosition.x, jointPosition.y) == -1) {
+		for (Point jointPosition : joints) {
+			for (Material material : MaterialLayers.MATERIALS) {
+				if (!paintedMaterials.isFilled(material, jointPosition.x, jointPosition.y)) {
 					toRemove.add(jointPosition);
+					break;
 				}
 			}
 		}
 		for (Point pointToRemove : toRemove) {
-			jointPositions.remove(pointToRemove);
+			removeMarker(jointPositions, jointIndex, pointToRemove);
 		}
 
 
 		//remove invalid engines
 		toRemove = new ArrayList<Point>();
-		for (Point enginePosition : enginePositions) {
+		for (Point enginePosition : engines) {
 			boolean isAttached = false;
-			for (BufferedImage materialImage : paintedMaterials) {
-				if (materialImage.getRGB(enginePosition.x, enginePosition.y) != -1) {
+			for (Material material : MaterialLayers.MATERIALS) {
+				if (paintedMaterials.isFilled(material, enginePosition.x, enginePosition.y)) {
 					isAttached = true;
 				}
 			}
@@ -208,41 +409,74 @@ public class PaintLayer extends JPanel implements MouseListener, MouseMotionList
 			}
 		}
 		for (Point pointToRemove : toRemove) {
-			enginePositions.remove(pointToRemove);
+			removeMarker(enginePositions, engineIndex, pointToRemove);
 		}
 	}
 
-	public Plane assemblePlane() {
-		// Skapa för vänsterklick ----------------------------------------------
-
-		// skapa vingar
-		ArrayList<Wing> allWings = Wing.createFromParts(createParts(Material.WING_MATERIAL));
-
-		// skapa strukturer
-		ArrayList<Structure> allStructures = Structure.createFromParts(createParts(Material.STRUCTURE_MATERIAL));
-
-		Plane plane = Plane.assemblePlane(allWings, allStructures, enginePositions, jointPositions);
+	private static void removeMarker(ArrayList<Point> positions, MarkerIndex index, Point position) {
+		for (int i = 0; i < positions.size(); i++) {
+			if (positions.get(i) == position) {
+				positions.remove(i);
+				break;
+			}
+		}
+		index.remove(position);
+	}
 
-		return plane;
+	/**
+	 * Bygger om rutnäten efter att positionerna har ersatts.
+	 */
+	private void rebuildMarkerIndex() {
+		jointIndex.rebuild(jointPositions);
+		engineIndex.rebuild(enginePositions);
 	}
 
-	private ArrayList<Part> createParts(Material material) {
-		//måla ritytan till en bildbuffert, vingarnas bilddata
-		BufferedImage partImage = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_ARGB);
-		paintOneMaterial(
-				partImage.createGraphics(), material);
-		ArrayList<Part> allParts = Part.splitImageIntoParts(partImage, material);
+	public Plane assemblePlane() {
+		return createAssembler().assemble();
+	}
 
-		return allParts;
+	/**
+	 * Skapar en PlaneAssembler med en kopia av det som ritats, för att sätta ihop
+	 * planet utanför EDT. Måste anropas på EDT. Endast lagrens befintliga bitar kopieras.
+	 */
+	public PlaneAssembler createAssembler() {
+		return new PlaneAssembler(
+				layers.toMask(Material.WING_MATERIAL),
+				layers.toMask(Material.STRUCTURE_MATERIAL),
+				enginePositions, jointPositions);
 	}
 
 	public void clear() {
 		enginePositions.clear();
 		jointPositions.clear();
-		shapes.clear();
+		rebuildMarkerIndex();
+		layers.clear();
+		history.record(null, true, enginePositions, jointPositions);
 		repaint();
 	}
 
+	/**
+	 * Ångrar det senaste draget, placerade motorn eller jointen, eller rensningen.
+	 */
+	public void undo() {
+		if (stroke == null) {
+			history.undo(enginePositions, jointPositions);
+			rebuildMarkerIndex();
+			repaint();
+		}
+	}
+
+	/**
+	 * Gör om det senast ångrade.
+	 */
+	public void redo() {
+		if (stroke == null) {
+			history.redo(enginePositions, jointPositions);
+			rebuildMarkerIndex();
+			repaint();
+		}
+	}
+
 	public void setPaintMaterial(Material paintMaterial) {
 		this.paintMaterial = paintMaterial;
 	}
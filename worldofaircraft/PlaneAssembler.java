@@ -0,0 +1,169 @@
+package worldofaircraft;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import javax.swing.SwingWorker;
+import physics.ComponentLabeling;
+import physics.Material;
+import physics.TiledMask;
+import physics.entities.Part;
+import physics.entities.Plane;
+import physics.entities.Structure;
+import physics.entities.Wing;
+
+/**
+ * Sätter ihop ett plan från det som ritats i en PaintLayer, utanför EDT.
+ * <br/><br/>
+ * Arbetet görs i steg, och varje steg delas upp i oberoende uppgifter som körs
+ * parallellt på ForkJoinPool: först delas varje materials mask upp i sammanhängande
+ * grupper, sedan skapas en del för varje grupp med massa,
+ * avståndsfält och kant, och sist ritas bilderna för delarna. Ju fler kärnor,
+ * desto kortare tid från att Start trycks tills planet flyger.
+ * <br/><br/>
+ * Maskerna är glesa, se TiledMask, så bara de delar av ritytan där något ritats
+ * gås igenom. Ritytans lager kopieras innan objektet skapas, så användaren kan fortsätta
+ * att rita medan planet sätts ihop. Framstegen rapporteras med setProgress,
+ * och planet hämtas med get() när arbetet är klart.
+ *
+ * @author Robin Lindh Nilsson
+ */
+public class PlaneAssembler extends SwingWorker<Plane, Void> {
+
+	private final TiledMask wingPixels, structurePixels;
+	private final ArrayList<Point> enginePositions;
+	private final ArrayList<Point> jointPositions;
+	private PlaneRenderer renderer;
+
+	/**
+	 * Måste skapas på EDT, eftersom ritytans innehåll kopieras.
+	 * @param wingPixels vingarnas pixlar, se MaterialLayers.toMask. Får inte ändras efteråt.
+	 * @param structurePixels strukturernas pixlar. Får inte ändras efteråt.
+	 */
+	public PlaneAssembler(TiledMask wingPixels, TiledMask structurePixels,
+			ArrayList<Point> enginePositions, ArrayList<Point> jointPositions) {
+		this.wingPixels = wingPixels;
+		this.structurePixels = structurePixels;
+		this.enginePositions = new ArrayList<Point>(enginePositions);
+		this.jointPositions = new ArrayList<Point>(jointPositions);
+	}
+
+	@Override
+	protected Plane doInBackground() {
+		return assemble();
+	}
+
+	/**
+	 * Sätter ihop planet direkt och väntar tills det är klart, utan att gå via execute().
+	 * Stegen körs på ForkJoinPool, så att uppgifterna i varje steg kan köras parallellt.
+	 */
+	public Plane assemble() {
+		return ForkJoinPool.commonPool().invoke(new RecursiveTask<Plane>() {
+			@Override
+			protected Plane compute() {
+				return assembleInPool();
+			}
+		});
+	}
+
+	private Plane assembleInPool() {
+		setProgress(0);
+
+		//dela upp båda materialen samtidigt
+		LabelMaterial wingLabels = new LabelMaterial(wingPixels);
+		LabelMaterial structureLabels = new LabelMaterial(structurePixels);
+		ForkJoinTask.invokeAll(wingLabels, structureLabels);
+		setProgress(30);
+
+		//skapa alla delar samtidigt
+		ComponentLabeling wingComponents = wingLabels.join();
+		ComponentLabeling structureComponents = structureLabels.join();
+		ArrayList<CreatePart> wingTasks = createPartTasks(wingComponents, Material.WING_MATERIAL);
+		ArrayList<CreatePart> structureTasks = createPartTasks(structureComponents, Material.STRUCTURE_MATERIAL);
+		ArrayList<CreatePart> allTasks = new ArrayList<CreatePart>(wingTasks);
+		allTasks.addAll(structureTasks);
+		ForkJoinTask.invokeAll(allTasks);
+		setProgress(80);
+
+		ArrayList<Wing> allWings = new ArrayList<Wing>();
+		for (CreatePart task : wingTasks) {
+			allWings.add((Wing) task.join());
+		}
+		ArrayList<Structure> allStructures = new ArrayList<Structure>();
+		for (CreatePart task : structureTasks) {
+			allStructures.add((Structure) task.join());
+		}
+		//grupperna används för att slå upp delarna under motorer och joints
+		Plane plane = Plane.assemblePlane(allWings, allStructures,
+				wingComponents, structureComponents, enginePositions, jointPositions);
+
+		//rita bilderna för delarna, så att den första bilden i spelet inte behöver vänta på dem
+		renderer = new PlaneRenderer(plane);
+		renderer.createSprites();
+		setProgress(100);
+
+		return plane;
+	}
+
+	/**
+	 * @return en renderer med färdiga bilder för planets delar, eller null innan planet är klart
+	 */
+	public PlaneRenderer getRenderer() {
+		return renderer;
+	}
+
+	private ArrayList<CreatePart> createPartTasks(ComponentLabeling labeling, Material material) {
+		ArrayList<CreatePart> tasks = new ArrayList<CreatePart>();
+		for (ComponentLabeling.Component component : labeling.getComponents()) {
+			tasks.add(new CreatePart(component, material));
+		}
+		return tasks;
+	}
+
+	/**
+	 * Delar upp ett materials mask i sammanhängande grupper.
+	 */
+	private static class LabelMaterial extends RecursiveTask<ComponentLabeling> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final TiledMask pixels;
+
+		LabelMaterial(TiledMask pixels) {
+			this.pixels = pixels;
+		}
+
+		@Override
+		protected ComponentLabeling compute() {
+			return new ComponentLabeling(pixels, true);
+		}
+	}
+
+	/**
+	 * Skapar en vinge eller struktur för en grupp, på gruppens plats i ritytan.
+	 */
+	private static class CreatePart extends RecursiveTask<Part> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ComponentLabeling.Component component;
+		private final Material material;
+
+		CreatePart(ComponentLabeling.Component component, Material material) {
+			this.component = component;
+			this.material = material;
+		}
+
+		@Override
+		protected Part compute() {
+			Part part = new Part(component.pixels, material);
+			part.pos.add(component.getOffset());
+			if (material == Material.WING_MATERIAL) {
+				return new Wing(part);
+			}
+			return new Structure(part);
+		}
+	}
+}
@@ -0,0 +1,271 @@
+package worldofaircraft;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+import physics.entities.Engine;
+import physics.entities.Part;
+import physics.entities.Plane;
+import physics.entities.RigidBody;
+
+/**
+ * Ritar ut ett Plane. Fysikobjekten innehåller ingen grafik, så bilderna
+ * för varje del skapas här, en gång per form och material, utifrån delens pixeldata.
+ * Motorer och joints ritas med sina Sprite-bilder.
+ * <br/><br/>
+ * Delarna ritas med färdigroterade bilder från en RotatedSpriteCache, som kopieras
+ * direkt till skärmen. Tills en roterad bild är klar roteras delens bild när den ritas.
+ * De roterade bilderna är egna bilder som aldrig ändras efter att de har skapats, så att
+ * de kan ligga kvar i grafikminnet. Bilderna för joints ritas som rektanglar ur en SpriteAtlas.
+ * <br/><br/>
+ * Planet ritas inte ut direkt från fysikobjekten, utan från den senaste PlaneSnapshot som
+ * fysiktråden har publicerat med publish. Kopiorna växlas med trippelbuffring: fysiktråden
+ * fyller i en kopia och byter den mot den mittersta med en atomär operation, och
+ * utritningen byter till sig den mittersta om den är ny. Ingen av trådarna väntar någonsin
+ * på den andra, och utritningen ser alltid ett helt fysiksteg.
+ * <br/><br/>
+ * Det finns bara en läsare. paint får bara anropas från en tråd, eftersom den byter
+ * kopior och skapar bilder och lägger dem i atlasen utan lås.
+ * @author Robin Lindh Nilsson
+ */
+public class PlaneRenderer {
+
+	private Plane plane;
+	private IdentityHashMap<RigidBody, Sprite> sprites = new IdentityHashMap<RigidBody, Sprite>();
+	private HashMap<SpriteKey, Sprite> shapeSprites = new HashMap<SpriteKey, Sprite>(); //en bild per form och färg
+	private RotatedSpriteCache rotatedSprites = new RotatedSpriteCache();
+	private SpriteAtlas atlas = new SpriteAtlas();
+	private ArrayList<RigidBody> bodies = new ArrayList<RigidBody>(); //i den ordning de ritas
+	private PlaneSnapshot back = new PlaneSnapshot(); //fylls i av fysiktråden
+	private PlaneSnapshot front = new PlaneSnapshot(); //läses av utritningen
+	private final AtomicReference<PlaneSnapshot> middle = new AtomicReference<PlaneSnapshot>(new PlaneSnapshot());
+
+	public PlaneRenderer(Plane plane) {
+		this.plane = plane;
+		bodies.addAll(plane.getStructures());
+		bodies.addAll(plane.getWings());
+		bodies.addAll(plane.getEngines());
+	}
+
+	/**
+	 * Publicerar planets nuvarande tillstånd för utritning. Anropas från fysiktråden
+	 * mellan två steg, och blockerar aldrig.
+	 * @param alpha hur långt mellan föregående och nuvarande steg som ska ritas ut,
+	 * 0 ger föregående steg, 1 ger nuvarande
+	 */
+	public void publish(double alpha) {
+		back.capture(bodies, plane.getJoints(), alpha);
+		back.fresh = true;
+		back = middle.getAndSet(back);
+	}
+
+	/**
+	 * Ritar ut planet från det senast publicerade tillståndet, interpolerat mellan
+	 * föregående och nuvarande fysiksteg. Ritar ingenting innan något har publicerats.
+	 * Får bara anropas från en och samma tråd.
+	 */
+	public void paint(Graphics2D g2d) {
+		if (middle.get().fresh) {
+			front.fresh = false;
+			front = middle.getAndSet(front);
+		}
+		PlaneSnapshot snapshot = front;
+
+		for (int i = 0; i < snapshot.bodyCount; i++) {
+			paintBody(g2d, bodies.get(i), snapshot, i);
+		}
+		for (int i = 0; i < snapshot.jointCount; i++) {
+			paintJoint(g2d, snapshot, i);
+		}
+	}
+
+	private Sprite getSprite(RigidBody body) {
+		Sprite sprite = sprites.get(body);
+		if (sprite == null) {
+			SpriteKey key = new SpriteKey(body);
+			sprite = shapeSprites.get(key);
+			if (sprite == null) {
+				sprite = key.createSprite();
+				shapeSprites.put(key, sprite);
+			}
+			sprites.put(body, sprite);
+		}
+		return sprite;
+	}
+
+	/**
+	 * @return bildens plats i atlasen. Läggs till om den inte redan finns.
+	 */
+	private SpriteAtlas.Region getRegion(Sprite sprite) {
+		return atlas.add(sprite);
+	}
+
+	/**
+	 * Skapar bilderna för alla delar i förväg, parallellt på ForkJoinPool,
+	 * i stället för när varje del ritas ut första gången.
+	 * Delar med samma form och färg får samma bild. Bilderna för joints packas sedan i
+	 * atlasen. Delarnas bilder packas inte, de ritas som färdigroterade bilder.
+	 * Ska anropas innan planet börjar ritas ut.
+	 */
+	public void createSprites() {
+		//en uppgift per unik bild
+		LinkedHashMap<SpriteKey, RecursiveTask<Sprite>> tasks = new LinkedHashMap<SpriteKey, RecursiveTask<Sprite>>();
+		for (RigidBody body : bodies) {
+			final SpriteKey key = new SpriteKey(body);
+			if (!tasks.containsKey(key) && !shapeSprites.containsKey(key)) {
+				tasks.put(key, new RecursiveTask<Sprite>() {
+					@Override
+					protected Sprite compute() {
+						return key.createSprite();
+					}
+				});
+			}
+		}
+		ForkJoinTask.invokeAll(tasks.values());
+		for (Map.Entry<SpriteKey, RecursiveTask<Sprite>> entry : tasks.entrySet()) {
+			shapeSprites.put(entry.getKey(), entry.getValue().join());
+		}
+		for (RigidBody body : bodies) {
+			sprites.put(body, shapeSprites.get(new SpriteKey(body)));
+		}
+
+		getRegion(Sprite.JOINT);
+		getRegion(Sprite.BROKEN_JOINT);
+	}
+
+	/**
+	 * Nyckel för en dels bild: formen och färgen. Delar vars pixlar har ändrats
+	 * efter att formen räknades ut har ingen delad form, och får en egen bild.
+	 */
+	private static class SpriteKey {
+
+		private final RigidBody body; //används bara för att rita bilden
+		private final Object shape; //formen, eller kroppen själv om formen inte kan delas
+		private final int rgb;
+
+		SpriteKey(RigidBody body) {
+			this.body = body;
+			if (body instanceof Engine) {
+				shape = Engine.class;
+			} else if (body.getShape() != null && body.getShape().getPixels() == body.getPixels()) {
+				shape = body.getShape();
+			} else {
+				shape = body;
+			}
+			int color = Color.black.getRGB();
+			if (body instanceof Part && ((Part) body).material != null) {
+				color = ((Part) body).material.rgb;
+			}
+			rgb = color;
+		}
+
+		/**
+		 * Ritar bilden, med förminskade versioner för när planet ritas ut mindre.
+		 */
+		Sprite createSprite() {
+			Sprite sprite = body instanceof Engine ? Sprite.ENGINE : Sprite.fromPixels(body.getPixels(), rgb);
+			sprite.createMipmaps();
+			return sprite;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof SpriteKey && ((SpriteKey) other).shape == shape && ((SpriteKey) other).rgb == rgb;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(shape) * 31 + rgb;
+		}
+	}
+
+	public Plane getPlane() {
+		return plane;
+	}
+
+	/**
+	 * Ritar ut kropp i i kopian. Kroppen används bara för att hitta dess bild.
+	 */
+	private void paintBody(Graphics2D g2d, RigidBody body, PlaneSnapshot snapshot, int i) {
+		if (snapshot.empty[i]) {
+			return;
+		}
+
+		double alpha = snapshot.alpha;
+		//rotera den kortaste vägen, rotationen hoppar mellan -PI och PI
+		double deltaRotation = snapshot.rotation[i] - snapshot.previousRotation[i];
+		if (deltaRotation > Math.PI) {
+			deltaRotation -= 2*Math.PI;
+		} else if (deltaRotation < -Math.PI) {
+			deltaRotation += 2*Math.PI;
+		}
+		double x = snapshot.previousX[i] + (snapshot.x[i] - snapshot.previousX[i]) * alpha;
+		double y = snapshot.previousY[i] + (snapshot.y[i] - snapshot.previousY[i]) * alpha;
+		double rotation = snapshot.previousRotation[i] + deltaRotation * alpha;
+
+		int offsetX = (int) -snapshot.centerGravityX[i], offsetY = (int) -snapshot.centerGravityY[i];
+		AffineTransform original = g2d.getTransform();
+		RotatedSpriteCache.RotatedSprite rotated = null;
+		if ((original.getType() & ~(AffineTransform.TYPE_TRANSLATION | AffineTransform.TYPE_UNIFORM_SCALE)) == 0) {
+			rotated = rotatedSprites.get(getSprite(body), offsetX, offsetY, rotation, original.getScaleX());
+		}
+		if (rotated != null) {
+			//kopiera den roterade bilden direkt till skärmen, utan transformation
+			Point2D position = original.transform(new Point2D.Double(x, y), null);
+			g2d.setTransform(new AffineTransform());
+			g2d.drawImage(rotated.image, (int) Math.round(position.getX()) - rotated.originX,
+					(int) Math.round(position.getY()) - rotated.originY, null);
+			g2d.setTransform(original);
+			g2d.translate(x, y);
+		} else {
+			//transformera till rätt koordinatsystem
+			g2d.translate(x, y);
+			g2d.rotate(-rotation, 0, 0);
+			//rita den förminskade version som passar skalan, förstorad till rätt storlek
+			Sprite sprite = getSprite(body);
+			int level = sprite.getMipmapLevel(Math.sqrt(Math.abs(original.getDeterminant())));
+			g2d.translate(offsetX, offsetY);
+			g2d.scale(1 << level, 1 << level);
+			g2d.drawImage(sprite.getMipmap(level).image, 0, 0, null);
+			g2d.setTransform(original);
+			g2d.translate(x, y);
+		}
+		g2d.setColor(Color.green);
+		g2d.fillOval(-2, -2, 4, 4);
+		g2d.setTransform(original);
+	}
+
+	/**
+	 * Ritar ut joint i i kopian.
+	 */
+	private void paintJoint(Graphics2D g2d, PlaneSnapshot snapshot, int i) {
+		double alpha = snapshot.alpha;
+		Point point1 = new Point(
+				(int) (snapshot.previousX1[i] + (snapshot.x1[i] - snapshot.previousX1[i]) * alpha),
+				(int) (snapshot.previousY1[i] + (snapshot.y1[i] - snapshot.previousY1[i]) * alpha));
+		Point point2 = new Point(
+				(int) (snapshot.previousX2[i] + (snapshot.x2[i] - snapshot.previousX2[i]) * alpha),
+				(int) (snapshot.previousY2[i] + (snapshot.y2[i] - snapshot.previousY2[i]) * alpha));
+
+		//rita ut bilden för jointen centrerat på båda jointens ändpunkter
+		SpriteAtlas.Region region = getRegion(snapshot.broken[i] ? Sprite.BROKEN_JOINT : Sprite.JOINT);
+		region.drawCenteredAt(g2d, point1);
+		region.drawCenteredAt(g2d, point2);
+
+		//rita en blå linje mellan fästpunkterna om jointen inte är trasig
+		if (!snapshot.broken[i]) {
+			g2d.setColor(Color.cyan);
+			g2d.drawLine(point1.x, point1.y, point2.x, point2.y);
+		}
+	}
+}
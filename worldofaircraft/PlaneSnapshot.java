@@ -0,0 +1,106 @@
+package worldofaircraft;
+
+import java.util.ArrayList;
+import physics.Vector;
+import physics.entities.RigidBody;
+import physics.entities.SpringJoint;
+
+/**
+ * En kopia av allt som behövs för att rita ut ett plan: varje kropps position
+ * och rotation och varje joints fästpunkter, före och efter det senaste fysiksteget.
+ * Fysiktråden fyller i en kopia som utritningen sedan läser, se PlaneRenderer.publish,
+ * så att utritningen aldrig ser ett halvt uppdaterat plan.
+ * <br/><br/>
+ * Kopiorna återanvänds. Arrayerna har plats för minst så många kroppar och joints som
+ * planet har, och växer bara om planet får fler.
+ *
+ * @author Robin Lindh Nilsson
+ */
+public class PlaneSnapshot {
+
+	int bodyCount, jointCount;
+	//kropparna, i samma ordning som i listan till capture
+	double[] x, y, rotation; //efter senaste steget
+	double[] previousX, previousY, previousRotation; //före senaste steget, samma som efter om det saknas
+	double[] centerGravityX, centerGravityY; //lokala tyngdpunkten
+	boolean[] empty;
+	//jointarna, i samma ordning som i listan till capture
+	double[] x1, y1, x2, y2; //fästpunkterna efter senaste steget
+	double[] previousX1, previousY1, previousX2, previousY2;
+	boolean[] broken;
+	/** hur långt mellan de två senaste stegen som ska ritas ut, 0 till 1 */
+	double alpha;
+	/** true om kopian har fyllts i men ännu inte lästs */
+	volatile boolean fresh;
+
+	/**
+	 * Fyller i kopian. Får bara anropas från fysiktråden, mellan två steg.
+	 */
+	void capture(ArrayList<RigidBody> bodies, ArrayList<SpringJoint> joints, double alpha) {
+		ensureCapacity(bodies.size(), joints.size());
+		bodyCount = bodies.size();
+		jointCount = joints.size();
+		this.alpha = alpha;
+
+		for (int i = 0; i < bodyCount; i++) {
+			RigidBody body = bodies.get(i);
+			empty[i] = body.isEmpty();
+			x[i] = body.pos.x;
+			y[i] = body.pos.y;
+			rotation[i] = body.rotation;
+			if (body.previousPos != null) {
+				previousX[i] = body.previousPos.x;
+				previousY[i] = body.previousPos.y;
+				previousRotation[i] = body.previousRotation;
+			} else {
+				previousX[i] = x[i];
+				previousY[i] = y[i];
+				previousRotation[i] = rotation[i];
+			}
+			//tomma kroppar har ingen tyngdpunkt, och ritas inte ut
+			Vector centerGravityLocal = body.getCenterGravityLocal();
+			centerGravityX[i] = empty[i] ? 0 : centerGravityLocal.x;
+			centerGravityY[i] = empty[i] ? 0 : centerGravityLocal.y;
+		}
+
+		for (int i = 0; i < jointCount; i++) {
+			SpringJoint joint = joints.get(i);
+			Vector current1 = joint.getAttachPoint1(), current2 = joint.getAttachPoint2();
+			Vector previous1 = joint.getPreviousAttachPoint1(), previous2 = joint.getPreviousAttachPoint2();
+			x1[i] = current1.x;
+			y1[i] = current1.y;
+			x2[i] = current2.x;
+			y2[i] = current2.y;
+			previousX1[i] = previous1.x;
+			previousY1[i] = previous1.y;
+			previousX2[i] = previous2.x;
+			previousY2[i] = previous2.y;
+			broken[i] = joint.isBroken();
+		}
+	}
+
+	private void ensureCapacity(int bodies, int joints) {
+		if (x == null || x.length < bodies) {
+			x = new double[bodies];
+			y = new double[bodies];
+			rotation = new double[bodies];
+			previousX = new double[bodies];
+			previousY = new double[bodies];
+			previousRotation = new double[bodies];
+			centerGravityX = new double[bodies];
+			centerGravityY = new double[bodies];
+			empty = new boolean[bodies];
+		}
+		if (x1 == null || x1.length < joints) {
+			x1 = new double[joints];
+			y1 = new double[joints];
+			x2 = new double[joints];
+			y2 = new double[joints];
+			previousX1 = new double[joints];
+			previousY1 = new double[joints];
+			previousX2 = new double[joints];
+			previousY2 = new double[joints];
+			broken = new boolean[joints];
+		}
+	}
+}
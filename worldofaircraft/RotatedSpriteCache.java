@@ -0,0 +1,169 @@
+package worldofaircraft;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Färdigroterade och färdigskalade bilder, så att en roterad del kan ritas ut
+ * utan att bilden behöver räknas om varje bild.
+ * <br/><br/>
+ * Rotationen avrundas till ett av ANGLE_STEPS steg per varv. Bilderna skapas i bakgrunden
+ * på ForkJoinPool första gången de efterfrågas, och tills de är klara får delen ritas
+ * som vanligt. De senast använda bilderna sparas, så länge de tillsammans inte har fler
+ * än MAX_PIXELS pixlar. Stora delar tar alltså fler bilders plats. Har bilden förminskade
+ * versioner, se Sprite.createMipmaps, roteras den som passar skalan.
+ * <br/><br/>
+ * Varje roterad bild är en egen bild, som ritas färdigt innan den sparas och sedan
+ * aldrig ändras. Den kan därför ligga kvar i grafikminnet, vilket inte fungerar för
+ * sidor i en SpriteAtlas som ritas i medan de visas.
+ *
+ * @author Robin Lindh Nilsson
+ */
+public class RotatedSpriteCache {
+
+	/** antal möjliga rotationer per varv */
+	public static final int ANGLE_STEPS = 256;
+	/** största antal pixlar i alla sparade bilder, 4 byte var */
+	private static final long MAX_PIXELS = 8 * 1024 * 1024;
+
+	/**
+	 * En färdigroterad bild. Punkten (originX, originY) i bilden är kroppens position.
+	 */
+	public static class RotatedSprite {
+
+		public final BufferedImage image;
+		public final int originX, originY;
+
+		RotatedSprite(BufferedImage image, int originX, int originY) {
+			this.image = image;
+			this.originX = originX;
+			this.originY = originY;
+		}
+	}
+
+	/**
+	 * Nyckel för en roterad bild: den ursprungliga bilden, var i bilden kroppens
+	 * position ligger, rotationen och skalan.
+	 */
+	private static class Key {
+
+		final Sprite sprite;
+		final int offsetX, offsetY; //bildens övre vänstra hörn relativt kroppens position
+		final int angle; //0 till ANGLE_STEPS - 1
+		final double scale;
+
+		Key(Sprite sprite, int offsetX, int offsetY, int angle, double scale) {
+			this.sprite = sprite;
+			this.offsetX = offsetX;
+			this.offsetY = offsetY;
+			this.angle = angle;
+			this.scale = scale;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return key.sprite == sprite && key.offsetX == offsetX && key.offsetY == offsetY
+					&& key.angle == angle && key.scale == scale;
+		}
+
+		@Override
+		public int hashCode() {
+			long scaleBits = Double.doubleToLongBits(scale);
+			return ((System.identityHashCode(sprite) * 31 + offsetX) * 31 + offsetY) * 31 + angle
+					+ (int) (scaleBits ^ (scaleBits >>> 32)) * 17;
+		}
+	}
+
+	//i den ordning de senast användes
+	private final Map<Key, RotatedSprite> cache = new LinkedHashMap<Key, RotatedSprite>(16, 0.75f, true);
+	private long cachedPixels; //antal pixlar i alla bilder i cache
+	private final HashSet<Key> pending = new HashSet<Key>(); //bilder som skapas just nu
+
+	/**
+	 * @return steget som rotationen avrundas till
+	 */
+	public static int quantize(double rotation) {
+		int angle = (int) Math.round(rotation / (2 * Math.PI) * ANGLE_STEPS) % ANGLE_STEPS;
+		return angle < 0 ? angle + ANGLE_STEPS : angle;
+	}
+
+	/**
+	 * Hämtar en roterad bild. Finns den inte börjar den skapas i bakgrunden.
+	 * @param offsetX var bildens övre vänstra hörn ligger relativt kroppens position, innan rotationen
+	 * @param rotation kroppens rotation, som i RigidBody
+	 * @param scale hur många bildpunkter en pixel i bilden blir
+	 * @return den roterade bilden, eller null om den inte är klar än
+	 */
+	public RotatedSprite get(Sprite sprite, int offsetX, int offsetY, double rotation, double scale) {
+		final Key key = new Key(sprite, offsetX, offsetY, quantize(rotation), scale);
+		synchronized (cache) {
+			RotatedSprite rotated = cache.get(key);
+			if (rotated != null || !pending.add(key)) {
+				return rotated;
+			}
+		}
+		ForkJoinPool.commonPool().execute(new RecursiveAction() {
+			@Override
+			protected void compute() {
+				RotatedSprite rotated = createRotated(key);
+				synchronized (cache) {
+					cache.put(key, rotated);
+					cachedPixels += pixelsOf(rotated);
+					pending.remove(key);
+					evict();
+				}
+			}
+		});
+		return null;
+	}
+
+	private static long pixelsOf(RotatedSprite rotated) {
+		return (long) rotated.image.getWidth() * rotated.image.getHeight();
+	}
+
+	/**
+	 * Tar bort de minst nyligen använda bilderna tills de som finns kvar får plats
+	 * i MAX_PIXELS. Den senast tillagda bilden behålls alltid. Anropas med cache låst.
+	 */
+	private void evict() {
+		Iterator<RotatedSprite> eldest = cache.values().iterator();
+		while (cachedPixels > MAX_PIXELS && cache.size() > 1) {
+			cachedPixels -= pixelsOf(eldest.next());
+			eldest.remove();
+		}
+	}
+
+	private static RotatedSprite createRotated(Key key) {
+		AffineTransform transform = AffineTransform.getScaleInstance(key.scale, key.scale);
+		transform.rotate(-key.angle * 2 * Math.PI / ANGLE_STEPS);
+		transform.translate(key.offsetX, key.offsetY);
+		Rectangle bounds = transform.createTransformedShape(
+				new Rectangle(0, 0, key.sprite.width, key.sprite.height)).getBounds();
+
+		BufferedImage image = new BufferedImage(Math.max(1, bounds.width), Math.max(1, bounds.height),
+				BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g2d = image.createGraphics();
+		g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g2d.translate(-bounds.x, -bounds.y);
+		g2d.transform(transform);
+		//utgå från den förminskade version som passar skalan, så att bilinjär filtrering räcker
+		int level = key.sprite.getMipmapLevel(key.scale);
+		g2d.scale(1 << level, 1 << level);
+		g2d.drawImage(key.sprite.getMipmap(level).image, 0, 0, null);
+		g2d.dispose();
+		return new RotatedSprite(image, -bounds.x, -bounds.y);
+	}
+}
@@ -0,0 +1,166 @@
+package worldofaircraft;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import javax.imageio.ImageIO;
+import physics.BitMask;
+
+/**
+ * En bild som ritas ut av spelet, t.ex. för motorer och joints.
+ * @author Robinerd
+ */
+public class Sprite {
+
+	public static Sprite ENGINE, JOINT, BROKEN_JOINT;
+
+	static {
+		ENGINE = loadImageWhiteMask("img/engine.png");
+		JOINT = loadImageWhiteMask("img/joint.png");
+		BROKEN_JOINT = loadImageWhiteMask("img/broken_joint.png");
+	}
+
+	public BufferedImage image;
+	public int width;
+	public int height;
+	private Sprite[] mipmaps; //mipmaps[n] är bilden förminskad 2^n gånger, mipmaps[0] är bilden själv
+
+	public Sprite(BufferedImage image) {
+		this.image = image;
+		width = image.getWidth();
+		height = image.getHeight();
+	}
+
+	public void drawCenteredAt(Point center, Graphics g) {
+		drawAt(new Point(center.x - width/2, center.y - height/2), g);
+	}
+
+	public void drawAt(Point topLeft, Graphics2D g2d) {
+		g2d.drawImage(image, topLeft.x, topLeft.y, null);
+	}
+
+	public void drawAt(Point position, Graphics g) {
+		drawAt(position, (Graphics2D) g);
+	}
+
+	/**
+	 * Skapar förminskade versioner av bilden, var och en hälften så stor som den förra,
+	 * tills bilden är en pixel bred eller hög. Varje pixel blir medelvärdet av fyra pixlar
+	 * i den förra bilden, där pixlar utanför bilden räknas som genomskinliga.
+	 */
+	public synchronized void createMipmaps() {
+		if (mipmaps != null) {
+			return;
+		}
+		ArrayList<Sprite> levels = new ArrayList<Sprite>();
+		levels.add(this);
+		Sprite level = this;
+		while (level.width > 1 && level.height > 1) {
+			level = new Sprite(halve(level.image));
+			levels.add(level);
+		}
+		mipmaps = levels.toArray(new Sprite[levels.size()]);
+	}
+
+	private static BufferedImage halve(BufferedImage image) {
+		int width = image.getWidth(), height = image.getHeight();
+		int halfWidth = (width + 1) / 2, halfHeight = (height + 1) / 2;
+		BufferedImage half = new BufferedImage(halfWidth, halfHeight, BufferedImage.TYPE_INT_ARGB);
+		int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+		int[] halfPixels = new int[halfWidth * halfHeight];
+		for (int j = 0; j < halfHeight; j++) {
+			for (int i = 0; i < halfWidth; i++) {
+				//summera med färgerna viktade med alfa, så att genomskinliga pixlar inte färgar kanten
+				int a = 0, r = 0, g = 0, b = 0;
+				for (int y = 2 * j; y < Math.min(2 * j + 2, height); y++) {
+					for (int x = 2 * i; x < Math.min(2 * i + 2, width); x++) {
+						int argb = pixels[y * width + x];
+						int alpha = argb >>> 24;
+						a += alpha;
+						r += ((argb >> 16) & 0xff) * alpha;
+						g += ((argb >> 8) & 0xff) * alpha;
+						b += (argb & 0xff) * alpha;
+					}
+				}
+				if (a > 0) {
+					halfPixels[j * halfWidth + i] = ((a / 4) << 24) | ((r / a) << 16) | ((g / a) << 8) | (b / a);
+				}
+			}
+		}
+		half.setRGB(0, 0, halfWidth, halfHeight, halfPixels, 0, halfWidth);
+		return half;
+	}
+
+	/**
+	 * @return den förminskade version som passar bäst att rita med en viss skala: den minsta
+	 * som fortfarande har minst en pixel per bildpunkt. 0 om inga förminskningar har skapats.
+	 */
+	public synchronized int getMipmapLevel(double scale) {
+		if (mipmaps == null || scale >= 1) {
+			return 0;
+		}
+		int level = (int) Math.floor(Math.log(1 / scale) / Math.log(2) + 1e-9);
+		return Math.min(level, mipmaps.length - 1);
+	}
+
+	/**
+	 * @return antalet versioner av bilden, inklusive bilden själv
+	 */
+	public synchronized int getMipmapCount() {
+		return mipmaps == null ? 1 : mipmaps.length;
+	}
+
+	/**
+	 * @return bilden förminskad 2^level gånger, se getMipmapLevel
+	 */
+	public synchronized Sprite getMipmap(int level) {
+		return level == 0 ? this : mipmaps[level];
+	}
+
+	public static Sprite loadImage(String path) {
+		BufferedImage image = null;
+		try {
+			image = (BufferedImage) ImageIO.read(Sprite.class.getClassLoader().getResource(path));
+		} catch (Exception ex) {
+			System.err.println("Could not load image +" + path + "\n");
+			ex.printStackTrace();
+		}
+		
+		return new Sprite(image);
+	}
+
+	public static Sprite loadImageWhiteMask(String path) {
+		BufferedImage image = loadImage(path).image;
+
+		BufferedImage transparentImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+
+		//behåll alla pixlar utom de vita. det vita blir då genomskinligt.
+		for (int i = 0; i < image.getWidth(); i++) {
+			for (int j = 0; j < image.getHeight(); j++) {
+				int rgb = image.getRGB(i, j);
+				if (rgb != -1) {
+					transparentImage.setRGB(i, j, rgb);
+				}
+			}
+		}
+
+		return new Sprite(transparentImage);
+	}
+
+	/**
+	 * Ritar upp en pixelmask med en färg, på genomskinlig bakgrund.
+	 * @param pixels masken, fyllda pixlar ritas
+	 * @param rgb färgen för de fyllda pixlarna
+	 */
+	public static Sprite fromPixels(BitMask pixels, int rgb) {
+		BufferedImage image = new BufferedImage(pixels.getWidth(), pixels.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		for (int j = 0; j < pixels.getHeight(); j++) {
+			for (int i = pixels.nextSetBit(0, j); i != -1; i = pixels.nextSetBit(i + 1, j)) {
+				image.setRGB(i, j, rgb);
+			}
+		}
+		return new Sprite(image);
+	}
+}
@@ -0,0 +1,132 @@
+package worldofaircraft;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.Point;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Samlar många små bilder i några få stora, så att de kan ritas ut som
+ * delar av samma bild. Stora bilder som ligger kvar i grafikminnet går snabbare
+ * att rita än många små, och varje utritning blir bara en kopiering av en rektangel.
+ * <br/><br/>
+ * Bilderna packas rad för rad i sidor om PAGE_SIZE gånger PAGE_SIZE pixlar. En ny rad
+ * börjar när bilden inte får plats i den nuvarande, och en ny sida när raden inte
+ * får plats på sidan. Bilder som är större än en sida får en egen sida.
+ *
+ * @author Robin Lindh Nilsson
+ */
+public class SpriteAtlas {
+
+	/** sidornas storlek i pixlar */
+	public static final int PAGE_SIZE = 1024;
+	/** tomma pixlar mellan bilderna, så att de inte blandas ihop när de skalas */
+	private static final int PADDING = 1;
+
+	/**
+	 * En bilds plats i atlasen.
+	 */
+	public static class Region {
+
+		public final BufferedImage page;
+		public final int x, y, width, height;
+
+		Region(BufferedImage page, int x, int y, int width, int height) {
+			this.page = page;
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+		}
+
+		/**
+		 * Ritar bilden med sitt övre vänstra hörn i (left, top).
+		 */
+		public void drawAt(Graphics2D g2d, int left, int top) {
+			g2d.drawImage(page, left, top, left + width, top + height, x, y, x + width, y + height, null);
+		}
+
+		public void drawCenteredAt(Graphics2D g2d, Point center) {
+			drawAt(g2d, center.x - width / 2, center.y - height / 2);
+		}
+	}
+
+	private final ArrayList<BufferedImage> pages = new ArrayList<BufferedImage>();
+	private final IdentityHashMap<Sprite, Region> regions = new IdentityHashMap<Sprite, Region>();
+	private BufferedImage page; //sidan som fylls just nu
+	private int shelfX, shelfY, shelfHeight; //nästa lediga plats på den nuvarande raden
+
+	/**
+	 * Skapar en tom sida, helst i ett format som kan ligga kvar i grafikminnet.
+	 */
+	private static BufferedImage createPage(int width, int height) {
+		BufferedImage image;
+		if (GraphicsEnvironment.isHeadless()) {
+			image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		} else {
+			image = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+					.getDefaultConfiguration().createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+		}
+		image.setAccelerationPriority(1);
+		return image;
+	}
+
+	/**
+	 * Lägger till en bild, om den inte redan finns.
+	 * @return bildens plats i atlasen
+	 */
+	public Region add(Sprite sprite) {
+		Region region = regions.get(sprite);
+		if (region != null) {
+			return region;
+		}
+		int width = sprite.width + PADDING, height = sprite.height + PADDING;
+		if (width > PAGE_SIZE || height > PAGE_SIZE) {
+			//för stor, får en egen sida
+			BufferedImage own = createPage(sprite.width, sprite.height);
+			pages.add(own);
+			region = copyInto(own, sprite, 0, 0);
+		} else {
+			if (page != null && shelfX + width > PAGE_SIZE) {
+				//ny rad
+				shelfX = 0;
+				shelfY += shelfHeight;
+				shelfHeight = 0;
+			}
+			if (page == null || shelfY + height > PAGE_SIZE) {
+				//ny sida
+				page = createPage(PAGE_SIZE, PAGE_SIZE);
+				pages.add(page);
+				shelfX = 0;
+				shelfY = 0;
+				shelfHeight = 0;
+			}
+			region = copyInto(page, sprite, shelfX, shelfY);
+			shelfX += width;
+			shelfHeight = Math.max(shelfHeight, height);
+		}
+		regions.put(sprite, region);
+		return region;
+	}
+
+	private static Region copyInto(BufferedImage page, Sprite sprite, int x, int y) {
+		Graphics2D g2d = page.createGraphics();
+		g2d.drawImage(sprite.image, x, y, null);
+		g2d.dispose();
+		return new Region(page, x, y, sprite.width, sprite.height);
+	}
+
+	/**
+	 * @return bildens plats i atlasen, eller null om den inte har lagts till
+	 */
+	public Region get(Sprite sprite) {
+		return regions.get(sprite);
+	}
+
+	public int getPageCount() {
+		return pages.size();
+	}
+}
@@ -0,0 +1,133 @@
+package worldofaircraft;
+
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+
+/**
+ * En linje som ritas med ett enda drag med musen, från att knappen trycks ner
+ * tills den släpps. Alla punkter samlas i en och samma polylinje, i stället för
+ * en ny linje för varje musrörelse.
+ * <br/><br/>
+ * Polylinjen förenklas medan punkterna läggs till: en punkt som ligger närmare
+ * än TOLERANCE från den raka linjen mellan sina grannar tas bort. Ett långt,
+ * rakt drag blir därför bara några få punkter.
+ *
+ * @author Robin Lindh Nilsson
+ */
+public class StrokePath {
+
+	/** största avvikelse från de ursprungliga punkterna, i pixlar */
+	public static final double TOLERANCE = 0.5;
+
+	private double[] x = new double[16], y = new double[16];
+	private int n = 0;
+	private int anchor = 0; //sista punkten som inte kan tas bort
+	private double[] skippedX = new double[16], skippedY = new double[16]; //borttagna punkter efter anchor
+	private int skipped = 0;
+	private Path2D.Double path; //byggs när den behövs
+	private Rectangle2D.Double lastChange; //punkterna som påverkades av senaste lineTo
+
+	public StrokePath(double startX, double startY) {
+		x[0] = startX;
+		y[0] = startY;
+		n = 1;
+		lastChange = new Rectangle2D.Double(startX, startY, 0, 0);
+	}
+
+	/**
+	 * Lägger till nästa punkt. Den föregående punkten tas bort om alla punkter sedan
+	 * den senaste kvarvarande punkten fortfarande ligger inom TOLERANCE från linjen.
+	 */
+	public void lineTo(double newX, double newY) {
+		//den del av linjen som ändras ligger mellan anchor, den sista punkten och den nya punkten
+		lastChange = new Rectangle2D.Double(x[anchor], y[anchor], 0, 0);
+		lastChange.add(x[n - 1], y[n - 1]);
+		lastChange.add(newX, newY);
+		if (n > anchor + 1 && isWithinTolerance(newX, newY)) {
+			//ersätt den sista punkten, och kom ihåg den för nästa kontroll
+			addSkipped(x[n - 1], y[n - 1]);
+			n--;
+		} else if (n > anchor + 1) {
+			anchor = n - 1;
+			skipped = 0;
+		}
+		if (n == x.length) {
+			x = Arrays.copyOf(x, 2 * n);
+			y = Arrays.copyOf(y, 2 * n);
+		}
+		x[n] = newX;
+		y[n] = newY;
+		n++;
+		path = null;
+	}
+
+	/**
+	 * @return true om den sista punkten och alla borttagna punkter efter anchor
+	 * ligger inom TOLERANCE från sträckan mellan anchor och den nya punkten
+	 */
+	private boolean isWithinTolerance(double newX, double newY) {
+		if (distanceToSegment(x[n - 1], y[n - 1], newX, newY) > TOLERANCE) {
+			return false;
+		}
+		for (int i = 0; i < skipped; i++) {
+			if (distanceToSegment(skippedX[i], skippedY[i], newX, newY) > TOLERANCE) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private double distanceToSegment(double px, double py, double endX, double endY) {
+		double startX = x[anchor], startY = y[anchor];
+		double dx = endX - startX, dy = endY - startY;
+		double lengthSquared = dx * dx + dy * dy;
+		double t = lengthSquared == 0 ? 0 : ((px - startX) * dx + (py - startY) * dy) / lengthSquared;
+		t = Math.max(0, Math.min(1, t));
+		double ex = startX + t * dx - px, ey = startY + t * dy - py;
+		return Math.sqrt(ex * ex + ey * ey);
+	}
+
+	private void addSkipped(double px, double py) {
+		if (skipped == skippedX.length) {
+			skippedX = Arrays.copyOf(skippedX, 2 * skipped);
+			skippedY = Arrays.copyOf(skippedY, 2 * skipped);
+		}
+		skippedX[skipped] = px;
+		skippedY[skipped] = py;
+		skipped++;
+	}
+
+	/**
+	 * @return rektangeln runt den del av polylinjen som ändrades av det senaste
+	 * anropet till lineTo, utan linjens bredd. Allt utanför ser likadant ut som förut.
+	 */
+	public Rectangle2D getLastChange() {
+		return lastChange;
+	}
+
+	/**
+	 * @return antalet punkter i den förenklade polylinjen
+	 */
+	public int getPointCount() {
+		return n;
+	}
+
+	/**
+	 * @return polylinjen. Består den av en enda punkt blir den en linje med längden noll,
+	 * som ritas som en prick.
+	 */
+	public Path2D getPath() {
+		if (path == null) {
+			path = new Path2D.Double(Path2D.WIND_NON_ZERO, Math.max(n, 2));
+			path.moveTo(x[0], y[0]);
+			if (n == 1) {
+				path.lineTo(x[0], y[0]);
+			}
+			for (int i = 1; i < n; i++) {
+				path.lineTo(x[i], y[i]);
+			}
+		}
+		return path;
+	}
+}